@@ -2,7 +2,11 @@ package br.ufma.ecp;
 
 import static br.ufma.ecp.token.TokenType.*;
 
-
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 import br.ufma.ecp.token.Token; 
 
@@ -10,9 +14,40 @@ public class App
 {
 
     
-    public static void main( String[] args )
+    public static void main( String[] args ) throws IOException
     {
 
+        // compila cada .jack recebido e grava o .vm ao lado dele
+        // (com -b, grava tambem o .vmb no formato binario; com -t, trata os
+        // arquivos como um programa so e remove as funcoes inalcancaveis)
+        if (args.length > 0) {
+            boolean binary = false;
+            boolean shake = false;
+            List<Path> sources = new ArrayList<>();
+            for (String arg : args) {
+                if (arg.equals("-b")) {
+                    binary = true;
+                } else if (arg.equals("-t")) {
+                    shake = true;
+                } else {
+                    sources.add(Path.of(arg));
+                }
+            }
+
+            var units = new VMCode[sources.size()];
+            for (int i = 0; i < units.length; i++) {
+                units[i] = compile(sources.get(i));
+            }
+            if (shake) {
+                var result = VMTreeShaker.shake(units);
+                units = result.units();
+                System.out.print(result.report());
+            }
+            for (int i = 0; i < units.length; i++) {
+                write(sources.get(i), units[i], binary);
+            }
+            return;
+        }
     
         String input = "45  + if - \"ola\" laranja 876";
         Scanner scan = new Scanner (input.getBytes());
@@ -41,4 +76,24 @@ public class App
         System.out.println(tk);
         */
     }
+
+    static VMCode compile(Path source) throws IOException {
+        // o fonte e mapeado em memoria, nao lido para um byte[]
+        var code = new VMCode();
+        Parser p = new Parser(Scanner.fromFile(source), XmlSink.NONE, code);
+        p.parse();
+        return code;
+    }
+
+    static void write(Path source, VMCode code, boolean binary) throws IOException {
+        var name = source.getFileName().toString().replaceFirst("\\.jack$", "");
+        try (var out = Files.newOutputStream(source.resolveSibling(name + ".vm"))) {
+            code.writeTo(out);
+        }
+        if (binary) {
+            try (var out = Files.newOutputStream(source.resolveSibling(name + ".vmb"))) {
+                VMBinary.write(code, out);
+            }
+        }
+    }
 }
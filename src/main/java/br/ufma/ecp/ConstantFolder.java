@@ -0,0 +1,160 @@
+package br.ufma.ecp;
+
+import java.util.Arrays;
+
+// Avalia em tempo de compilacao as operacoes cujos operandos sao todos
+// constantes. Fica entre o Parser e outro sink: os push constant sao
+// guardados numa pilha pendente e cada operacao sobre eles (add, sub, neg,
+// not, and, or, comparacoes e as chamadas a Math.multiply/divide) e feita
+// aqui mesmo. Como o Parser ja gera o codigo em pos-ordem, da esquerda para
+// a direita e sem precedencia, dobrar na pilha segue a semantica do Jack.
+// As contas sao em 16 bits, com o mesmo estouro da maquina. Qualquer outra
+// instrucao primeiro emite as constantes pendentes.
+public class ConstantFolder implements VMCommandSink {
+
+    private final VMCommandSink out;
+    private int[] pending = new int[8];
+    private int count;
+
+    public ConstantFolder(VMCommandSink out) {
+        this.out = out;
+    }
+
+    public void writePush(Segment segment, int index) {
+        if (segment != Segment.CONST) {
+            flush();
+            out.writePush(segment, index);
+            return;
+        }
+        if (count == pending.length) {
+            pending = Arrays.copyOf(pending, count * 2);
+        }
+        pending[count++] = (short) index;
+    }
+
+    public void writePop(Segment segment, int index) {
+        flush();
+        out.writePop(segment, index);
+    }
+
+    public void writeArithmetic(Command command) {
+        if (command == Command.NEG || command == Command.NOT) {
+            if (count >= 1) {
+                int x = pending[count - 1];
+                pending[count - 1] = (short) (command == Command.NEG ? -x : ~x);
+                return;
+            }
+        } else if (count >= 2) {
+            int y = pending[--count];
+            int x = pending[count - 1];
+            pending[count - 1] = (short) apply(command, x, y);
+            return;
+        }
+        flush();
+        out.writeArithmetic(command);
+    }
+
+    private static int apply(Command command, int x, int y) {
+        switch (command) {
+            case ADD:
+                return x + y;
+            case SUB:
+                return x - y;
+            case AND:
+                return x & y;
+            case OR:
+                return x | y;
+            case EQ:
+                return x == y ? -1 : 0;
+            case GT:
+                return x > y ? -1 : 0;
+            case LT:
+                return x < y ? -1 : 0;
+            default:
+                throw new IllegalArgumentException(command.value);
+        }
+    }
+
+    public void writeCall(String name, int nArgs) {
+        if (nArgs == 2 && count >= 2) {
+            int y = pending[count - 1];
+            int x = pending[count - 2];
+            if (name.equals("Math.multiply")) {
+                count--;
+                pending[count - 1] = (short) (x * y);
+                return;
+            }
+            if (name.equals("Math.divide") && y != 0) { // divisao por zero fica para o Math
+                count--;
+                pending[count - 1] = (short) (x / y);
+                return;
+            }
+        }
+        flush();
+        out.writeCall(name, nArgs);
+    }
+
+    public void writeLabel(String label) {
+        flush();
+        out.writeLabel(label);
+    }
+
+    public void writeLabel(String prefix, int n) {
+        flush();
+        out.writeLabel(prefix, n);
+    }
+
+    public void writeGoto(String label) {
+        flush();
+        out.writeGoto(label);
+    }
+
+    public void writeGoto(String prefix, int n) {
+        flush();
+        out.writeGoto(prefix, n);
+    }
+
+    public void writeIf(String label) {
+        flush();
+        out.writeIf(label);
+    }
+
+    public void writeIf(String prefix, int n) {
+        flush();
+        out.writeIf(prefix, n);
+    }
+
+    public void writeFunction(String name, int nLocals) {
+        flush();
+        out.writeFunction(name, nLocals);
+    }
+
+    public void writeReturn() {
+        flush();
+        out.writeReturn();
+    }
+
+    // emite as constantes pendentes. push constant so aceita 0..32767: um
+    // negativo vira push -v; neg, e -32768 (que nao tem -v) vira push 32767; not.
+    // -1 sai como push constant 0; not, a forma de true que o peephole e o
+    // BRANCH_LAYOUT reconhecem como booleana
+    public void flush() {
+        for (int i = 0; i < count; i++) {
+            int value = pending[i];
+            if (value >= 0) {
+                out.writePush(Segment.CONST, value);
+            } else if (value == -1) {
+                out.writePush(Segment.CONST, 0);
+                out.writeArithmetic(Command.NOT);
+            } else if (value == Short.MIN_VALUE) {
+                out.writePush(Segment.CONST, Short.MAX_VALUE);
+                out.writeArithmetic(Command.NOT);
+            } else {
+                out.writePush(Segment.CONST, -value);
+                out.writeArithmetic(Command.NEG);
+            }
+        }
+        count = 0;
+    }
+
+}
@@ -0,0 +1,166 @@
+package br.ufma.ecp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Tabela de identificadores: cada lexema distinto recebe um id inteiro denso
+// e uma unica String canonica. O Scanner interna direto dos bytes da
+// entrada; SymbolTable e Parser trabalham com os ids, inclusive para montar
+// nomes qualificados como Classe.metodo, que tambem ficam guardados.
+public class IdentifierTable {
+
+    private int[] slots = new int[64]; // id + 1 (0 = vazio)
+    private byte[][] bytes = new byte[32][];
+    private int[] hashes = new int[32];
+    private String[] names = new String[32];
+    private int size;
+
+    // nomes qualificados: par (classe, membro) -> id + 1
+    private long[] pairKeys = new long[64];
+    private int[] pairIds = new int[64];
+    private int pairCount;
+
+    public int intern(ByteBuffer input, int start, int length) {
+        int hash = hash(input, start, length);
+        int i = slot(input, start, length, hash);
+        if (slots[i] == 0) {
+            var lexeme = new byte[length];
+            input.get(start, lexeme);
+            return add(lexeme, hash, i);
+        }
+        return slots[i] - 1;
+    }
+
+    public int intern(String name) {
+        var lexeme = name.getBytes(StandardCharsets.UTF_8);
+        return intern(ByteBuffer.wrap(lexeme), 0, lexeme.length);
+    }
+
+    // id do nome, ou -1 se ele nunca foi internado; nao insere nada
+    public int find(String name) {
+        var lexeme = name.getBytes(StandardCharsets.UTF_8);
+        var input = ByteBuffer.wrap(lexeme);
+        return slots[slot(input, 0, lexeme.length, hash(input, 0, lexeme.length))] - 1;
+    }
+
+    // posicao em slots do lexema, ou a vaga onde ele entraria
+    private int slot(ByteBuffer input, int start, int length, int hash) {
+        int mask = slots.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int slot = slots[i];
+            if (slot == 0) {
+                return i;
+            }
+            int id = slot - 1;
+            if (hashes[id] == hash && matches(bytes[id], input, start, length)) {
+                return i;
+            }
+        }
+    }
+
+    public String name(int id) {
+        return names[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    byte[] bytes(int id) {
+        return bytes[id];
+    }
+
+    // id de "classe.membro", montado uma unica vez por par
+    public int qualify(int classId, int memberId) {
+        long key = ((long) classId << 32) | (memberId & 0xFFFFFFFFL);
+        int mask = pairKeys.length - 1;
+        int i = mix(Long.hashCode(key)) & mask;
+        for (; pairIds[i] != 0; i = (i + 1) & mask) {
+            if (pairKeys[i] == key) {
+                return pairIds[i] - 1;
+            }
+        }
+
+        int id = intern(names[classId] + "." + names[memberId]);
+        pairKeys[i] = key;
+        pairIds[i] = id + 1;
+        if (++pairCount * 2 > pairKeys.length) {
+            growPairs();
+        }
+        return id;
+    }
+
+    private int add(byte[] lexeme, int hash, int slot) {
+        if (size == names.length) {
+            int capacity = size * 2;
+            bytes = Arrays.copyOf(bytes, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            names = Arrays.copyOf(names, capacity);
+        }
+        int id = size++;
+        bytes[id] = lexeme;
+        hashes[id] = hash;
+        names[id] = new String(lexeme, StandardCharsets.UTF_8);
+        slots[slot] = id + 1;
+        if (size * 2 > slots.length) {
+            growSlots();
+        }
+        return id;
+    }
+
+    private void growSlots() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int i = hashes[id] & mask;
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = id + 1;
+        }
+    }
+
+    private void growPairs() {
+        var oldKeys = pairKeys;
+        var oldIds = pairIds;
+        pairKeys = new long[oldKeys.length * 2];
+        pairIds = new int[oldIds.length * 2];
+        int mask = pairKeys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldIds[j] == 0) continue;
+            int i = mix(Long.hashCode(oldKeys[j])) & mask;
+            while (pairIds[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            pairKeys[i] = oldKeys[j];
+            pairIds[i] = oldIds[j];
+        }
+    }
+
+    private static int hash(ByteBuffer input, int start, int length) {
+        int h = 0;
+        for (int i = start; i < start + length; i++) {
+            h = 31 * h + input.get(i);
+        }
+        return mix(h);
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(byte[] lexeme, ByteBuffer input, int start, int length) {
+        if (lexeme.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (lexeme[i] != input.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -2,10 +2,21 @@ package br.ufma.ecp;
 
 import static br.ufma.ecp.token.TokenType.*;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import br.ufma.ecp.SymbolTable.Kind;
 import br.ufma.ecp.SymbolTable.Symbol;
-import br.ufma.ecp.VMWriter.Command;
-import br.ufma.ecp.VMWriter.Segment;
+import br.ufma.ecp.VMCommandSink.Command;
+import br.ufma.ecp.VMCommandSink.Segment;
+import br.ufma.ecp.token.IdentifierToken;
+import br.ufma.ecp.token.IntegerToken;
 import br.ufma.ecp.token.Token;
 import br.ufma.ecp.token.TokenType;
 
@@ -17,19 +28,73 @@ public class Parser {
     private Scanner scan;
     private Token currentToken;
     private Token peekToken;
+
+    // modo buffer: os tokens ficam em arrays e o parser so anda com indices
+    private TokenBuffer tokens;
+    private int currentIndex = -1;
+    private int peekIndex = -1;
     // private String xmlOutput = "";
-    private StringBuilder xmlOutput = new StringBuilder();
+    private XmlSink xmlOutput;
+    private IdentifierTable identifiers;
     private SymbolTable symbolTable;
-    private VMWriter vmWriter;
+    private VMCommandSink vmWriter;
 
     private String className;
+    private int classId;
+    private int thisId;
+    private int[] typeIds; // id dos tipos primitivos, por ordinal do TokenType
     private int ifLabelNum;
+    private EnumSet<Optimization> optimizations = EnumSet.noneOf(Optimization.class);
+    private Map<String, Integer> strings; // literal -> numero do slot, com STRING_POOL
+    private BitSet stringsReady; // slots ja montados em todo caminho ate aqui
+    private int stringLabelNum;
     private int whileLabelNum;
 
     public Parser(byte[] input) {
-        scan = new Scanner(input);
-        symbolTable = new SymbolTable();
-        vmWriter = new VMWriter();
+        this(new Scanner(input));
+    }
+
+    public Parser(byte[] input, XmlSink xmlOutput) {
+        this(new Scanner(input), xmlOutput);
+    }
+
+    public Parser(Scanner scan) {
+        this(scan, new XmlSink.Buffer());
+    }
+
+    // com XmlSink.NONE o parser so gera o codigo VM
+    public Parser(Scanner scan, XmlSink xmlOutput) {
+        this(scan, xmlOutput, new VMWriter());
+    }
+
+    // as instrucoes VM vao para vmOutput em vez do texto do VMWriter
+    public Parser(Scanner scan, XmlSink xmlOutput, VMCommandSink vmOutput) {
+        this.scan = scan;
+        identifiers = scan.identifiers();
+        init(xmlOutput, vmOutput);
+    }
+
+    public Parser(TokenBuffer tokens) {
+        this(tokens, new XmlSink.Buffer());
+    }
+
+    public Parser(TokenBuffer tokens, XmlSink xmlOutput) {
+        this(tokens, xmlOutput, new VMWriter());
+    }
+
+    public Parser(TokenBuffer tokens, XmlSink xmlOutput, VMCommandSink vmOutput) {
+        this.tokens = tokens;
+        identifiers = tokens.identifiers();
+        init(xmlOutput, vmOutput);
+    }
+
+    private void init(XmlSink xmlOutput, VMCommandSink vmOutput) {
+        this.xmlOutput = xmlOutput;
+        vmWriter = vmOutput;
+        symbolTable = new SymbolTable(identifiers);
+        thisId = identifiers.intern("this");
+        typeIds = new int[TokenType.values().length];
+        Arrays.fill(typeIds, -1);
 
         nextToken();
 
@@ -39,20 +104,115 @@ public class Parser {
     }
 
     private void nextToken() {
-        currentToken = peekToken;
-        peekToken = scan.nextToken();
+        if (tokens != null) {
+            currentIndex = peekIndex;
+            if (peekIndex < tokens.size() - 1) { // o EOF se repete no fim
+                peekIndex++;
+            }
+        } else {
+            currentToken = peekToken;
+            peekToken = scan.nextToken();
+        }
+    }
+
+    private TokenType peekType() {
+        return tokens != null ? tokens.type(peekIndex) : peekToken.type;
+    }
+
+    private TokenType currentType() {
+        return tokens != null ? tokens.type(currentIndex) : currentToken.type;
+    }
+
+    private String currentValue() {
+        return tokens != null ? tokens.value(currentIndex) : currentToken.value();
+    }
+
+    private int currentInt() {
+        return tokens != null ? tokens.intValue(currentIndex) : ((IntegerToken) currentToken).intValue();
+    }
+
+    // id do identificador atual em identifiers
+    private int currentId() {
+        return tokens != null ? tokens.id(currentIndex) : ((IdentifierToken) currentToken).id();
+    }
+
+    // id do tipo atual (int, char, boolean ou nome de classe), sem internar de novo
+    private int currentTypeId() {
+        if (currentType() == IDENT) {
+            return currentId();
+        }
+        int k = currentType().ordinal();
+        if (typeIds[k] < 0) {
+            typeIds[k] = identifiers.intern(currentValue());
+        }
+        return typeIds[k];
+    }
+
+    // otimizacoes opcionais do codigo VM; nenhuma vem ligada
+    public enum Optimization {
+        CONSTANT_FOLDING,
+        STRENGTH_REDUCTION,
+        PEEPHOLE,
+        STRING_POOL,
+        DEAD_CODE,
+        BRANCH_LAYOUT
+    }
+
+    public Parser enable(Optimization... optimizations) {
+        for (Optimization optimization : optimizations) {
+            this.optimizations.add(optimization);
+        }
+        return this;
     }
 
     void parse() {
+        if (optimizations.isEmpty()) {
+            parseClass();
+            return;
+        }
+
+        // a classe e gerada num VMCode, otimizada e so entao enviada ao sink
+        var target = vmWriter;
+        var code = new VMCode();
+        vmWriter = code;
+        // o folder fica por fora: as constantes chegam ja dobradas ao reducer
+        StrengthReducer reducer = null;
+        if (optimizations.contains(Optimization.STRENGTH_REDUCTION)) {
+            vmWriter = reducer = new StrengthReducer(vmWriter);
+        }
+        ConstantFolder folder = null;
+        if (optimizations.contains(Optimization.CONSTANT_FOLDING)) {
+            vmWriter = folder = new ConstantFolder(vmWriter);
+        }
         parseClass();
+        if (folder != null) {
+            folder.flush();
+        }
+        if (reducer != null) {
+            reducer.flush();
+        }
+        vmWriter = target;
+
+        if (optimizations.contains(Optimization.PEEPHOLE)) {
+            code = VMPeephole.optimize(code);
+        }
+        if (optimizations.contains(Optimization.DEAD_CODE)) {
+            code = VMDeadCode.optimize(code);
+        }
+        code.replay(target);
     }
 
     void parseClass() {
         printNonTerminal("class");
         expectPeek(CLASS);
         expectPeek(IDENT);
-        className = currentToken.value();
+        className = currentValue();
+        classId = currentId();
         expectPeek(LBRACE);
+        if (optimizations.contains(Optimization.STRING_POOL)) {
+            strings = new LinkedHashMap<>();
+            stringsReady = new BitSet();
+        }
 
         while (peekTokenIs(STATIC) || peekTokenIs(FIELD)) {
             parseClassVarDec();
@@ -67,33 +227,71 @@ public class Parser {
         printNonTerminal("/class");
     }
 
+    // com STRING_POOL cada literal distinto da classe tem um static, depois
+    // dos da classe, e todos os usos compartilham o mesmo objeto. O primeiro
+    // uso num caminho da funcao monta a String se o static ainda for null:
+    //
+    //   push static n; if-goto STRING_READYk; <String.new...>; pop static n;
+    //   label STRING_READYk; push static n
+    //
+    // e os usos que ele domina sao so push static n. O que foi montado dentro
+    // de um bloco de if/while nao vale depois dele (parseStatements restaura)
+    void writePooledString(String value) {
+        Integer slot = strings.get(value);
+        if (slot == null) {
+            slot = strings.size();
+            strings.put(value, slot);
+        }
+        int index = symbolTable.varCount(Kind.STATIC) + slot;
+        if (!stringsReady.get(slot)) {
+            var labelNum = stringLabelNum;
+            stringLabelNum++;
+            vmWriter.writePush(Segment.STATIC, index);
+            vmWriter.writeIf("STRING_READY", labelNum);
+            writeString(value);
+            vmWriter.writePop(Segment.STATIC, index);
+            vmWriter.writeLabel("STRING_READY", labelNum);
+            stringsReady.set(slot);
+        }
+        vmWriter.writePush(Segment.STATIC, index);
+    }
+
+    void writeString(String value) {
+        vmWriter.writePush(Segment.CONST, value.length());
+        vmWriter.writeCall("String.new", 1);
+        for (int i = 0; i < value.length(); i++) {
+            vmWriter.writePush(Segment.CONST, value.charAt(i));
+            vmWriter.writeCall("String.appendChar", 2);
+        }
+    }
+
     // subroutineCall -> subroutineName '(' expressionList ')' | (className|varName)
     // '.' subroutineName '(' expressionList ')
     void parseSubroutineCall() {
 
         var nArgs = 0;
 
-        var ident = currentToken.value();
+        var ident = currentId();
         var symbol = symbolTable.resolve(ident); // classe ou objeto
-        var functionName = ident + ".";
+        int functionName;
 
         if (peekTokenIs(LPAREN)) { // método da propria classe
             expectPeek(LPAREN);
             vmWriter.writePush(Segment.POINTER, 0);
             nArgs = parseExpressionList() + 1;
             expectPeek(RPAREN);
-            functionName = className + "." + ident;
+            functionName = identifiers.qualify(classId, ident);
         } else {
             // pode ser um metodo de um outro objeto ou uma função
             expectPeek(DOT);
             expectPeek(IDENT); // nome da função
 
             if (symbol != null) { // é um metodo
-                functionName = symbol.type() + "." + currentToken.value();
+                functionName = identifiers.qualify(symbol.typeId(), currentId());
                 vmWriter.writePush(kind2Segment(symbol.kind()), symbol.index());
                 nArgs = 1; // do proprio objeto
             } else {
-                functionName += currentToken.value(); // é uma função
+                functionName = identifiers.qualify(ident, currentId()); // é uma função
             }
 
             expectPeek(LPAREN);
@@ -102,7 +300,7 @@ public class Parser {
             expectPeek(RPAREN);
         }
 
-        vmWriter.writeCall(functionName, nArgs);
+        vmWriter.writeCall(identifiers.name(functionName), nArgs);
     }
 
     void parseDo() {
@@ -126,18 +324,19 @@ public class Parser {
 
         // 'int' | 'char' | 'boolean' | className
         expectPeek(INT, CHAR, BOOLEAN, IDENT);
-        String type = currentToken.value();
+        String type = currentValue();
+        int typeId = currentTypeId();
 
         expectPeek(IDENT);
-        String name = currentToken.value();
-        symbolTable.define(name, type, kind);
+        int name = currentId();
+        symbolTable.define(name, type, typeId, kind);
 
         while (peekTokenIs(COMMA)) {
             expectPeek(COMMA);
             expectPeek(IDENT);
 
-            name = currentToken.value();
-            symbolTable.define(name, type, kind);
+            name = currentId();
+            symbolTable.define(name, type, typeId, kind);
 
         }
 
@@ -156,18 +355,19 @@ public class Parser {
 
         // 'int' | 'char' | 'boolean' | className
         expectPeek(INT, CHAR, BOOLEAN, IDENT);
-        String type = currentToken.value();
+        String type = currentValue();
+        int typeId = currentTypeId();
 
         expectPeek(IDENT);
-        String name = currentToken.value();
+        int name = currentId();
 
-        symbolTable.define(name, type, kind);
+        symbolTable.define(name, type, typeId, kind);
         while (peekTokenIs(COMMA)) {
             expectPeek(COMMA);
             expectPeek(IDENT);
 
-            name = currentToken.value();
-            symbolTable.define(name, type, kind);
+            name = currentId();
+            symbolTable.define(name, type, typeId, kind);
         }
 
         expectPeek(SEMICOLON);
@@ -179,21 +379,25 @@ public class Parser {
 
         ifLabelNum = 0;
         whileLabelNum = 0;
+        stringLabelNum = 0;
+        if (stringsReady != null) {
+            stringsReady.clear();
+        }
 
         symbolTable.startSubroutine();
 
         expectPeek(CONSTRUCTOR, FUNCTION, METHOD);
-        var subroutineType = currentToken.type;
+        var subroutineType = currentType();
 
         if (subroutineType == METHOD) {
-            symbolTable.define("this", className, Kind.ARG);
+            symbolTable.define(thisId, className, classId, Kind.ARG);
         }
 
         // 'int' | 'char' | 'boolean' | className
         expectPeek(VOID, INT, CHAR, BOOLEAN, IDENT);
         expectPeek(IDENT);
 
-        var functionName = className + "." + currentToken.value();
+        var functionName = identifiers.name(identifiers.qualify(classId, currentId()));
 
         expectPeek(LPAREN);
         parseParameterList();
@@ -211,21 +415,23 @@ public class Parser {
         if (!peekTokenIs(RPAREN)) // verifica se tem pelo menos uma expressao
         {
             expectPeek(INT, CHAR, BOOLEAN, IDENT);
-            String type = currentToken.value();
+            String type = currentValue();
+            int typeId = currentTypeId();
 
             expectPeek(IDENT);
-            String name = currentToken.value();
-            symbolTable.define(name, type, kind);
+            int name = currentId();
+            symbolTable.define(name, type, typeId, kind);
 
             while (peekTokenIs(COMMA)) {
                 expectPeek(COMMA);
                 expectPeek(INT, CHAR, BOOLEAN, IDENT);
-                type = currentToken.value();
+                type = currentValue();
+                typeId = currentTypeId();
 
                 expectPeek(IDENT);
-                name = currentToken.value();
+                name = currentId();
 
-                symbolTable.define(name, type, kind);
+                symbolTable.define(name, type, typeId, kind);
             }
 
         }
@@ -269,7 +475,7 @@ public class Parser {
         expectPeek(LET);
         expectPeek(IDENT);
 
-        var symbol = symbolTable.resolve(currentToken.value());
+        var symbol = symbolTable.resolve(currentId());
 
         if (peekTokenIs(LBRACKET)) { // array
             expectPeek(LBRACKET);
@@ -308,48 +514,109 @@ public class Parser {
     void parseWhile() {
         printNonTerminal("whileStatement");
 
-        var labelTrue = "WHILE_EXP" + whileLabelNum;
-        var labelFalse = "WHILE_END" + whileLabelNum;
+        // os rotulos sao prefixo + numero, escritos sem montar a String
+        var labelNum = whileLabelNum;
         whileLabelNum++;
 
-        vmWriter.writeLabel(labelTrue);
+        if (optimizations.contains(Optimization.BRANCH_LAYOUT)) {
+            parseWhileLayout(labelNum);
+            return;
+        }
+
+        vmWriter.writeLabel("WHILE_EXP", labelNum);
 
         expectPeek(WHILE);
         expectPeek(LPAREN);
         parseExpression();
 
         vmWriter.writeArithmetic(Command.NOT);
-        vmWriter.writeIf(labelFalse);
+        vmWriter.writeIf("WHILE_END", labelNum);
 
         expectPeek(RPAREN);
         expectPeek(LBRACE);
         parseStatements();
 
-        vmWriter.writeGoto(labelTrue); // Go back to labelTrue and check condition
-        vmWriter.writeLabel(labelFalse); // Breaks out of while loop because ~(condition) is true
+        vmWriter.writeGoto("WHILE_EXP", labelNum); // Go back to labelTrue and check condition
+        vmWriter.writeLabel("WHILE_END", labelNum); // Breaks out of while loop because ~(condition) is true
 
         expectPeek(RBRACE);
         printNonTerminal("/whileStatement");
     }
 
+    // com BRANCH_LAYOUT o laco e rodado: a condicao vai para o fim e desvia de
+    // volta ao corpo, um desvio e um not a menos por iteracao
+    //
+    //   goto WHILE_EXP n; label WHILE_BODY n; corpo;
+    //   label WHILE_EXP n; condicao; if-goto WHILE_BODY n
+    //
+    // if-goto testa != 0 e o not do laco original testa != -1, entao so da
+    // para rodar quando a condicao e booleana. Nos demais casos fica o laco
+    // original, sem o not quando a condicao ja termina em um (~~x == x)
+    void parseWhileLayout(int labelNum) {
+        expectPeek(WHILE);
+        expectPeek(LPAREN);
+        var condition = parseCondition();
+        expectPeek(RPAREN);
+        expectPeek(LBRACE);
+
+        int last = condition.size() - 1;
+        if (VMPeephole.isBoolean(condition, last)) {
+            vmWriter.writeGoto("WHILE_EXP", labelNum);
+            vmWriter.writeLabel("WHILE_BODY", labelNum);
+            parseStatements();
+            vmWriter.writeLabel("WHILE_EXP", labelNum);
+            condition.replay(vmWriter);
+            vmWriter.writeIf("WHILE_BODY", labelNum);
+        } else {
+            vmWriter.writeLabel("WHILE_EXP", labelNum);
+            if (isNot(condition, last)) {
+                condition.replay(0, last, vmWriter);
+            } else {
+                condition.replay(vmWriter);
+                vmWriter.writeArithmetic(Command.NOT);
+            }
+            vmWriter.writeIf("WHILE_END", labelNum);
+            parseStatements();
+            vmWriter.writeGoto("WHILE_EXP", labelNum);
+            vmWriter.writeLabel("WHILE_END", labelNum);
+        }
+
+        expectPeek(RBRACE);
+        printNonTerminal("/whileStatement");
+    }
+
+    // gera a expressao a parte, para ser posicionada depois
+    private VMCode parseCondition() {
+        var target = vmWriter;
+        var condition = new VMCode();
+        vmWriter = condition;
+        parseExpression();
+        vmWriter = target;
+        return condition;
+    }
+
+    private static boolean isNot(VMCode code, int index) {
+        return code.opcode(index) == VMCode.Opcode.ARITHMETIC && code.command(index) == Command.NOT;
+    }
+
     void parseIf() {
         printNonTerminal("ifStatement");
 
-        var labelTrue = "IF_TRUE" + ifLabelNum;
-        var labelFalse = "IF_FALSE" + ifLabelNum;
-        var labelEnd = "IF_END" + ifLabelNum;
-
+        var labelNum = ifLabelNum;
         ifLabelNum++;
 
         expectPeek(IF);
         expectPeek(LPAREN);
-        parseExpression();
+        if (optimizations.contains(Optimization.BRANCH_LAYOUT)) {
+            writeIfLayout(parseCondition(), labelNum);
+        } else {
+            parseExpression();
+            vmWriter.writeIf("IF_TRUE", labelNum);
+            vmWriter.writeGoto("IF_FALSE", labelNum);
+            vmWriter.writeLabel("IF_TRUE", labelNum);
+        }
         expectPeek(RPAREN);
 
-        vmWriter.writeIf(labelTrue);
-        vmWriter.writeGoto(labelFalse);
-        vmWriter.writeLabel(labelTrue);
-
         expectPeek(LBRACE);
         parseStatements();
         expectPeek(RBRACE);
@@ -357,10 +624,10 @@ public class Parser {
 
         if (peekTokenIs(ELSE))
         {
-            vmWriter.writeGoto(labelEnd);
+            vmWriter.writeGoto("IF_END", labelNum);
         }
 
-        vmWriter.writeLabel(labelFalse);
+        vmWriter.writeLabel("IF_FALSE", labelNum);
 
         if (peekTokenIs(ELSE))
         {
@@ -371,27 +638,52 @@ public class Parser {
             parseStatements();
 
             expectPeek(RBRACE);
-            vmWriter.writeLabel(labelEnd);
+            vmWriter.writeLabel("IF_END", labelNum);
         }
 
         printNonTerminal("/ifStatement");
     }
 
+    // com BRANCH_LAYOUT o ramo verdadeiro e a continuacao: a condicao
+    // booleana e negada e desvia direto para IF_FALSE, sem o goto. Se ela ja
+    // termina em not de um booleano, o not some e o desvio usa o valor
+    // original. Com outros valores o if-goto IF_TRUE original e mantido
+    void writeIfLayout(VMCode condition, int labelNum) {
+        int last = condition.size() - 1;
+        if (last > 0 && isNot(condition, last) && VMPeephole.isBoolean(condition, last - 1)) {
+            condition.replay(0, last, vmWriter);
+        } else if (VMPeephole.isBoolean(condition, last)) {
+            condition.replay(vmWriter);
+            vmWriter.writeArithmetic(Command.NOT);
+        } else {
+            condition.replay(vmWriter);
+            vmWriter.writeIf("IF_TRUE", labelNum);
+            vmWriter.writeGoto("IF_FALSE", labelNum);
+            vmWriter.writeLabel("IF_TRUE", labelNum);
+            return;
+        }
+        vmWriter.writeIf("IF_FALSE", labelNum);
+    }
+
     void parseStatements() {
         printNonTerminal("statements");
-        while (peekToken.type == WHILE ||
-                peekToken.type == IF ||
-                peekToken.type == LET ||
-                peekToken.type == DO ||
-                peekToken.type == RETURN) {
+        var ready = stringsReady == null ? null : (BitSet) stringsReady.clone();
+        while (peekType() == WHILE ||
+                peekType() == IF ||
+                peekType() == LET ||
+                peekType() == DO ||
+                peekType() == RETURN) {
             parseStatement();
         }
+        if (ready != null) {
+            stringsReady = ready;
+        }
 
         printNonTerminal("/statements");
     }
 
     void parseStatement() {
-        switch (peekToken.type) {
+        switch (peekType()) {
             case LET:
                 parseLet();
                 break;
@@ -408,7 +700,7 @@ public class Parser {
                 parseDo();
                 break;
             default:
-                throw error(peekToken, "Expected a statement");
+                throw error("Expected a statement");
         }
     }
 
@@ -453,9 +745,9 @@ public class Parser {
     void parseExpression() {
         printNonTerminal("expression");
         parseTerm();
-        while (isOperator(peekToken.type)) {
-            var op = peekToken.type;
-            expectPeek(peekToken.type);
+        while (isOperator(peekType())) {
+            var op = peekType();
+            expectPeek(peekType());
             parseTerm();
             compileOperators(op);
         }
@@ -476,19 +768,18 @@ public class Parser {
     // term -> number | identifier | stringConstant | keywordConstant
     void parseTerm() {
         printNonTerminal("term");
-        switch (peekToken.type) {
+        switch (peekType()) {
             case INTEGER:
                 expectPeek(INTEGER);
-                vmWriter.writePush(Segment.CONST, Integer.parseInt(currentToken.value()));
+                vmWriter.writePush(Segment.CONST, currentInt());
                 break;
             case STRING:
                 expectPeek(STRING);
-                var strValue = currentToken.value();
-                vmWriter.writePush(Segment.CONST, strValue.length());
-                vmWriter.writeCall("String.new", 1);
-                for (int i = 0; i < strValue.length(); i++) {
-                    vmWriter.writePush(Segment.CONST, strValue.charAt(i));
-                    vmWriter.writeCall("String.appendChar", 2);
+                var strValue = currentValue();
+                if (strings == null) {
+                    writeString(strValue);
+                } else {
+                    writePooledString(strValue);
                 }
                 break;
             case FALSE:
@@ -496,7 +787,7 @@ public class Parser {
             case TRUE:
                 expectPeek(FALSE, NULL, TRUE);
                 vmWriter.writePush(Segment.CONST, 0);
-                if (currentToken.type == TRUE)
+                if (currentType() == TRUE)
                     vmWriter.writeArithmetic(Command.NOT);
                 break;
             case THIS:
@@ -505,7 +796,7 @@ public class Parser {
                 break;
             case IDENT:
                 expectPeek(IDENT);
-                Symbol sym = symbolTable.resolve(currentToken.value());
+                Symbol sym = symbolTable.resolve(currentId());
 
                 if (peekTokenIs(LPAREN) || peekTokenIs(DOT)) {
                     parseSubroutineCall();
@@ -534,7 +825,7 @@ public class Parser {
             case MINUS:
             case NOT:
                 expectPeek(MINUS, NOT);
-                var op = currentToken.type;
+                var op = currentType();
                 parseTerm();
                 if (op == MINUS)
                     vmWriter.writeArithmetic(Command.NEG);
@@ -543,7 +834,7 @@ public class Parser {
 
                 break;
             default:
-                throw error(peekToken, "term expected");
+                throw error("term expected");
         }
         printNonTerminal("/term");
     }
@@ -554,42 +845,70 @@ public class Parser {
     }
 
     public String VMOutput() {
-        return vmWriter.vmOutput();
+        return vmWriter.toString();
+    }
+
+    // grava o codigo VM em bytes, sem passar por uma String
+    public void writeVM(OutputStream out) throws IOException {
+        if (vmWriter instanceof VMWriter writer) {
+            writer.writeTo(out);
+        } else if (vmWriter instanceof VMCode code) {
+            code.writeTo(out);
+        } else {
+            out.write(VMOutput().getBytes(StandardCharsets.UTF_8));
+        }
     }
 
     private void printNonTerminal(String nterminal) {
-        xmlOutput.append(String.format("<%s>\r\n", nterminal));
+        xmlOutput.nonTerminal(nterminal);
     }
 
     boolean peekTokenIs(TokenType type) {
-        return peekToken.type == type;
+        return peekType() == type;
     }
 
     boolean currentTokenIs(TokenType type) {
-        return currentToken.type == type;
+        return currentType() == type;
     }
 
-    private void expectPeek(TokenType... types) {
-        for (TokenType type : types) {
-            if (peekToken.type == type) {
-                expectPeek(type);
-                return;
-            }
+    // uma sobrecarga por aridade: varargs criaria um array a cada chamada
+    private void expectPeek(TokenType a, TokenType b) {
+        expectPeekIf(peekTokenIs(a) || peekTokenIs(b));
+    }
+
+    private void expectPeek(TokenType a, TokenType b, TokenType c) {
+        expectPeekIf(peekTokenIs(a) || peekTokenIs(b) || peekTokenIs(c));
+    }
+
+    private void expectPeek(TokenType a, TokenType b, TokenType c, TokenType d) {
+        expectPeekIf(peekTokenIs(a) || peekTokenIs(b) || peekTokenIs(c) || peekTokenIs(d));
+    }
+
+    private void expectPeek(TokenType a, TokenType b, TokenType c, TokenType d, TokenType e) {
+        expectPeekIf(peekTokenIs(a) || peekTokenIs(b) || peekTokenIs(c) || peekTokenIs(d) || peekTokenIs(e));
+    }
+
+    private void expectPeekIf(boolean matches) {
+        if (matches) {
+            expectPeek(peekType());
+            return;
         }
 
         // throw new Error("Syntax error");
-        throw error(peekToken, "Expected a statement");
+        throw error("Expected a statement");
 
     }
 
     private void expectPeek(TokenType type) {
-        if (peekToken.type == type) {
+        if (peekType() == type) {
             nextToken();
-            xmlOutput.append(String.format("%s\r\n", currentToken.toString()));
+            if (xmlOutput != XmlSink.NONE) { // nem monta o valor do token
+                xmlOutput.terminal(type, currentValue());
+            }
         } else {
             // throw new Error("Syntax error - expected " + type + " found " +
             // peekToken.type);
-            throw error(peekToken, "Expected " + type.value);
+            throw error("Expected " + type.value);
         }
     }
 
@@ -599,11 +918,13 @@ public class Parser {
                 "[line " + line + "] Error" + where + ": " + message);
     }
 
-    private ParseError error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
+    private ParseError error(String message) {
+        int line = tokens != null ? tokens.line(peekIndex) : peekToken.line;
+        if (peekType() == TokenType.EOF) {
+            report(line, " at end", message);
         } else {
-            report(token.line, " at '" + token.value() + "'", message);
+            var value = tokens != null ? tokens.value(peekIndex) : peekToken.value();
+            report(line, " at '" + value + "'", message);
         }
         return new ParseError();
     }
@@ -1,6 +1,17 @@
 package br.ufma.ecp;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 import br.ufma.ecp.token.IdentifierToken;
 import br.ufma.ecp.token.IntegerToken;
@@ -12,153 +23,471 @@ import br.ufma.ecp.token.TokenType;
 
 public class Scanner {
 
-    private byte[] input;
+    // classe de cada byte: um unico acesso a tabela decide o que fazer
+    private static final byte OTHER = 0;
+    private static final byte SPACE = 1;
+    private static final byte NEWLINE = 2;
+    private static final byte DIGIT = 3;
+    private static final byte LETTER = 4;
+    private static final byte SYMBOL = 5;
+    private static final byte QUOTE = 6;
+    private static final byte SLASH = 7;
+    private static final byte END = 8;
+    private static final byte NON_ASCII = 9;
+
+    private static final byte[] CLASSES = new byte[256];
+
+    static {
+        CLASSES[0] = END;
+        CLASSES[' '] = SPACE;
+        CLASSES['\t'] = SPACE;
+        CLASSES['\r'] = SPACE;
+        CLASSES['\n'] = NEWLINE;
+        for (int c = '0'; c <= '9'; c++) CLASSES[c] = DIGIT;
+        for (int c = 'a'; c <= 'z'; c++) CLASSES[c] = LETTER;
+        for (int c = 'A'; c <= 'Z'; c++) CLASSES[c] = LETTER;
+        for (int c = 0; c < 128; c++) {
+            if (TokenType.isSymbol((char) c)) CLASSES[c] = SYMBOL;
+        }
+        CLASSES['"'] = QUOTE;
+        CLASSES['/'] = SLASH;
+        for (int c = 128; c < 256; c++) CLASSES[c] = NON_ASCII;
+    }
+
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long STARS = 0x2A2A2A2A2A2A2A2AL;
+    private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+    private static final long SPACES = 0x2020202020202020L;
+    private static final long TABS = 0x0909090909090909L;
+    private static final long RETURNS = 0x0D0D0D0D0D0D0D0DL;
+
+    // os caminhos SWAR podem ser desligados com -Djackcompiler.scanner.scalar=true
+    private static final boolean SWAR = !Boolean.getBoolean("jackcompiler.scanner.scalar");
+
+    private ByteBuffer input;
+    private ByteBuffer words; // mesma memoria, lida como longs little-endian
+    private int limit;
+    private boolean swar = SWAR;
+
+    // modo streaming: o buffer tem tamanho fixo e e reabastecido pelo canal
+    private ReadableByteChannel channel;
     private int current;
     private int start;
+    private int end;
 
     private int line = 1;
 
+    private IdentifierTable identifiers = new IdentifierTable();
+    private int identifierId;
+
+    static final int MAX_INTEGER = 32767;
+    private int intValue;
+
     public Scanner(byte[] input) {
+        this(ByteBuffer.wrap(input));
+    }
+
+    // le direto do buffer, que pode estar fora do heap (ver fromFile)
+    public Scanner(ByteBuffer input) {
         this.input = input;
+        words = input.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        limit = input.limit();
         current = 0;
         start = 0;
     }
 
+    // comeca no meio da entrada, ja na linha indicada, internando os
+    // identificadores na tabela dada (usado pela analise em paralelo e pela
+    // reanalise incremental)
+    Scanner(ByteBuffer input, int offset, int line, IdentifierTable identifiers) {
+        this(input);
+        current = offset;
+        start = offset;
+        this.line = line;
+        this.identifiers = identifiers;
+    }
+
+    // le aos poucos de um canal (pipe, socket...) usando um buffer fixo, entao
+    // a memoria nao depende do tamanho da entrada. Um unico token precisa
+    // caber no buffer.
+    public Scanner(ReadableByteChannel channel, int bufferSize) {
+        this(ByteBuffer.allocate(bufferSize));
+        this.channel = channel;
+        limit = 0;
+    }
+
+    public Scanner(ReadableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    public Scanner(InputStream in) {
+        this(Channels.newChannel(in));
+    }
+
+    // mapeia o arquivo em memoria com FileChannel.map: fontes enormes
+    // nunca sao copiados para o heap
+    public static Scanner fromFile(Path path) throws IOException {
+        return new Scanner(map(path));
+    }
+
+    static MappedByteBuffer map(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(path + ": file too large (" + size + " bytes)");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
     // + - numeros (1, 12, 678)
     public Token nextToken() {
+        TokenType type = scan();
+
+        switch (type) {
+            case STRING:
+                return new StringToken(lexeme(), line);
+            case INTEGER:
+                return new IntegerToken(lexeme(), intValue, line);
+            case IDENT:
+                return new IdentifierToken(identifiers.name(identifierId), identifierId, line);
+            case EOF:
+                return new Token(type, line);
+            default:
+                if (TokenType.isKeyword(type)) {
+                    return new KeywordToken(type, line);
+                }
+                return new SymbolToken(type, line);
+        }
+    }
+
+    // reconhece o proximo token sem criar objetos: devolve apenas o tipo,
+    // o lexema fica em [tokenStart(), tokenStart() + tokenLength())
+    TokenType scan() {
 
-        skipWhitespace();
+        skipTrivia();
 
         start = current;
-        char ch = peek();
+        if (current >= limit) {
+            end = current;
+            return TokenType.EOF;
+        }
 
-        switch (ch) {
+        switch (CLASSES[input.get(current) & 0xFF]) {
 
-            case '"':
+            case QUOTE:
                 return string();
 
-            case '/':
-                if (peekNext() == '/') {
-                    skipLineComments();
-                    return nextToken();
-                } else if (peekNext() == '*') {
-                    skipBlockComments();
-                    return nextToken();
-                } else {
-                    advance();
-                    return new Token(TokenType.SLASH, line);
+            case SLASH:
+                advance();
+                end = current;
+                return TokenType.SLASH;
+            case END:
+                end = current;
+                return TokenType.EOF;
+            case DIGIT:
+                return number();
+            case LETTER:
+                return identifier();
+            case SYMBOL:
+                return symbol();
+            case NON_ASCII:
+                if (Character.isLetter(peek())) {
+                    return identifier();
                 }
-            case 0:
-                return new Token(TokenType.EOF, line);
             default:
+                throw new Error(line+":Unexpected character: "+peek());
+        }
 
-                if (Character.isDigit(ch)) {
-                    return number();
-                }
+    }
 
-                if (Character.isLetter(ch)) {
-                    return identifier();
-                }
+    // pula espacos e comentarios em sequencia, num laco so: a pilha nao
+    // cresce com a quantidade de comentarios. Para no inicio do proximo
+    // token (ou no fim da entrada).
+    private void skipTrivia() {
+        for (;;) {
+            start = current;
+            skipWhitespace();
+
+            start = current;
+            if (current >= limit && !fill()) {
+                return;
+            }
+            if (input.get(current) != '/') {
+                return;
+            }
 
-                if (TokenType.isSymbol(ch)) {
-                    return symbol();
-                }
+            char next = peekNext();
+            if (next == '/') {
+                skipLineComments();
+            } else if (next == '*') {
+                skipBlockComments();
+            } else {
+                return;
+            }
+        }
+    }
 
-                throw new Error(line+":Unexpected character: "+peek());
+    // descarta o que ja foi consumido (tudo antes de start) e le mais bytes do
+    // canal; devolve false quando nao ha canal ou ele chegou ao fim
+    private boolean fill() {
+        if (channel == null) {
+            return false;
+        }
+        if (start > 0) {
+            var array = input.array();
+            System.arraycopy(array, start, array, 0, limit - start);
+            current -= start;
+            end -= start;
+            limit -= start;
+            start = 0;
+        } else if (limit == input.capacity()) {
+            throw new Error(line + ":Token too long for the input buffer");
+        }
+
+        try {
+            int n;
+            do {
+                input.position(limit);
+                n = channel.read(input);
+            } while (n == 0);
+
+            if (n < 0) {
+                channel = null;
+                return false;
+            }
+            limit += n;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+    }
+
+    // desliga os caminhos SWAR (usado para comparar com o laco escalar)
+    Scanner scalar() {
+        swar = false;
+        return this;
+    }
+
+    // posicoes valem so para o token atual: no modo streaming o buffer anda
+    int tokenStart() {
+        return start;
+    }
 
+    int tokenLength() {
+        return end - start;
+    }
+
+    int line() {
+        return line;
+    }
+
+    // id do ultimo identificador reconhecido, na tabela do scanner
+    int identifierId() {
+        return identifierId;
+    }
+
+    // valor da ultima constante inteira reconhecida
+    int intValue() {
+        return intValue;
+    }
+
+    IdentifierTable identifiers() {
+        return identifiers;
+    }
+
+    private String lexeme() {
+        return decode(input, start, end - start);
+    }
+
+    // extrai o lexema da regiao [start, start + length) do buffer; se o buffer
+    // for mapeado so os bytes do lexema sao copiados
+    static String decode(ByteBuffer input, int start, int length) {
+        if (input.hasArray()) {
+            return new String(input.array(), input.arrayOffset() + start, length, StandardCharsets.UTF_8);
+        }
+        var bytes = new byte[length];
+        input.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
     }
 
     private void skipBlockComments() {
-        boolean endComment = false;
-        advance();
+        current += 2; // "/*"
 
-        while (!endComment) {
-            advance();
+        for (;;) {
+            if (swar) {
+                skipToStar();
+            }
+            start = current; // o comentario nao precisa ficar no buffer
             char ch = peek();
 
             if (ch == 0) { // eof
-                System.exit(1);
+                throw new Error(line + ":Unterminated comment");
             }
 
-            if (ch == '*') {
-
-                for (ch = peek(); ch == '*'; advance(), ch = peek())
-                    ;
-
-                if (ch == '/') {
-                    endComment = true;
-                    advance();
-                }
+            advance();
+            if (ch == '\n') {
+                line++;
+            } else if (ch == '*' && peek() == '/') {
+                advance();
+                return;
             }
-
         }
 
     }
 
     private void skipLineComments() {
+        if (swar) {
+            skipToNewline();
+        }
+        start = current;
+        for (char ch = peek(); ch != '\n' && ch != 0; start = current, advance(), ch = peek())
+            ;
+    }
 
-        for (char ch = peek(); ch != '\n' && ch != 0; advance(), ch = peek())
-            if (ch == '\n')
+    private void skipWhitespace() {
+        for (;;) {
+            if (current >= limit) {
+                start = current; // espacos nao precisam ficar no buffer
+                if (!fill()) {
+                    return;
+                }
+            }
+            byte cls = CLASSES[input.get(current) & 0xFF];
+            if (cls == NEWLINE) {
                 line++;
+                current++;
+                // depois de uma quebra de linha quase sempre vem indentacao
+                if (swar) {
+                    skipBlankWords();
+                }
+                continue;
+            } else if (cls != SPACE) {
+                return;
+            }
+            current++;
+        }
     }
 
-    private void skipWhitespace() {
-        char ch = peek();
-        while (ch == ' ' || ch == '\r' || ch == '\t' || ch == '\n') {
+    // Caminhos SWAR: leem 8 bytes de uma vez como um long e testam todos os
+    // bytes juntos. Param no byte procurado ou quando faltam menos de 8 bytes
+    // no buffer; dai em diante o laco escalar continua normalmente.
+
+    // pula ate o proximo '*', contando as quebras de linha no caminho
+    private void skipToStar() {
+        while (current + 8 <= limit) {
+            long word = words.getLong(current);
+            long stars = zeroBytes(word ^ STARS);
+            long newlines = zeroBytes(word ^ NEWLINES);
+            if (stars != 0) {
+                int k = Long.numberOfTrailingZeros(stars) >>> 3;
+                line += Long.bitCount(newlines & ((1L << (k << 3)) - 1));
+                current += k;
+                return;
+            }
+            line += Long.bitCount(newlines);
+            current += 8;
+        }
+    }
 
-            if (ch == '\n')
-                line++;
+    // pula ate o proximo '\n' (que fica para o skipWhitespace contar)
+    private void skipToNewline() {
+        while (current + 8 <= limit) {
+            long newlines = zeroBytes(words.getLong(current) ^ NEWLINES);
+            if (newlines != 0) {
+                current += Long.numberOfTrailingZeros(newlines) >>> 3;
+                return;
+            }
+            current += 8;
+        }
+    }
 
-            advance();
-            ch = peek();
+    // pula espacos, tabs e quebras de linha
+    private void skipBlankWords() {
+        while (current + 8 <= limit) {
+            long word = words.getLong(current);
+            long newlines = zeroBytes(word ^ NEWLINES);
+            long blanks = newlines | zeroBytes(word ^ SPACES) | zeroBytes(word ^ TABS) | zeroBytes(word ^ RETURNS);
+            if (blanks != HIGH_BITS) {
+                int k = Long.numberOfTrailingZeros(~blanks & HIGH_BITS) >>> 3;
+                line += Long.bitCount(newlines & ((1L << (k << 3)) - 1));
+                current += k;
+                return;
+            }
+            line += Long.bitCount(newlines);
+            current += 8;
         }
     }
 
-    private boolean isAlphaNumeric(char ch) {
-        return Character.isLetter(ch) || Character.isDigit(ch);
+    // bit mais alto ligado exatamente nos bytes de x que valem zero
+    private static long zeroBytes(long x) {
+        long t = (x & LOW_BITS) + LOW_BITS;
+        return ~(t | x | LOW_BITS);
     }
 
-    private Token string() {
+    private boolean isAlphaNumeric() {
+        if (current >= limit && !fill()) {
+            return false;
+        }
+        byte cls = CLASSES[input.get(current) & 0xFF];
+        if (cls == LETTER || cls == DIGIT) {
+            return true;
+        }
+        // caminho lento: fora do ASCII vale o que o Character disser
+        return cls == NON_ASCII && Character.isLetter((char) input.get(current));
+    }
+
+    private TokenType string() {
         advance();
         start = current;
         while (peek() != '"' && peek() != 0) {
             advance();
         }
-        String s = new String(input, start, current - start, StandardCharsets.UTF_8);
-        Token token = new StringToken(s, line);
+        end = current;
         advance();
-        return token;
+        return TokenType.STRING;
     }
 
-    private Token identifier() {
-        while (isAlphaNumeric(peek())) {
-            advance();
+    private TokenType identifier() {
+        while (isAlphaNumeric()) {
+            current++;
         }
-        String id = new String(input, start, current - start, StandardCharsets.UTF_8);
-        TokenType type = TokenType.keyword(id);
+        end = current;
+        TokenType type = TokenType.keyword(input, start, end - start);
         if (type == null) {
-            type = TokenType.IDENT;
-            return new IdentifierToken(id, line);
+            identifierId = identifiers.intern(input, start, end - start);
+            return TokenType.IDENT;
         } else {
-            return new KeywordToken(type, line);
+            return type;
         }
 
     }
 
-    private Token number() {
-        while (Character.isDigit(peek())) {
-            advance();
+    // o valor e calculado enquanto os digitos sao lidos
+    private TokenType number() {
+        int value = 0;
+        while ((current < limit || fill()) && CLASSES[input.get(current) & 0xFF] == DIGIT) {
+            if (value <= MAX_INTEGER) {
+                value = value * 10 + (input.get(current) - '0');
+            }
+            current++;
         }
-        String s = new String(input, start, current - start, StandardCharsets.UTF_8);
-        Token token = new IntegerToken(s, line);
-        return token;
+        end = current;
+        if (value > MAX_INTEGER) {
+            throw new Error(line + ":Integer constant out of range (0.." + MAX_INTEGER + "): " + lexeme());
+        }
+        intValue = value;
+        return TokenType.INTEGER;
     }
 
-    private SymbolToken symbol() {
+    private TokenType symbol() {
         var ch = peek();
         advance();
-        return new SymbolToken(TokenType.fromValue(String.valueOf(ch)), line);
+        end = current;
+        return TokenType.symbol(ch);
     }
 
 
@@ -170,20 +499,25 @@ public class Scanner {
     }
 
     private char peek() {
-        if (current < input.length) {
-            return (char) input[current];
+        if (current < limit || fill()) {
+            return (char) input.get(current);
         } else {
             return 0;
         }
     }
 
     private char peekNext() {
+        while (current + 1 >= limit) {
+            if (!fill()) {
+                return 0;
+            }
+        }
         int next = current + 1;
-        if (next < input.length) {
-            return (char) input[next];
+        if (next < limit) {
+            return (char) input.get(next);
         } else {
             return 0;
         }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,162 @@
+package br.ufma.ecp;
+
+// Troca as chamadas a Math.multiply e Math.divide com um operando constante
+// por codigo mais barato. No Hack essas funcoes sao lacos em software de
+// centenas de ciclos; aqui:
+//
+//   x * 0  ->  pop temp 0; push constant 0    (x ja foi avaliado)
+//   x * 1  e  x / 1  ->  nada
+//   x * k  ->  cadeia de add: x fica em temp 1 e o resultado e dobrado
+//              (pop temp 2; push temp 2; push temp 2; add) a cada bit de k,
+//              somando push temp 1; add nos bits ligados
+//
+// A cadeia so e usada enquanto for curta (MAX_CHAIN instrucoes); acima disso
+// fica a chamada. Como o Parser gera o operando direito por ultimo, a
+// constante e o push imediatamente anterior a chamada; com a constante a
+// esquerda (k * x), so da para trocar quando x e um unico push, que e
+// guardado junto. temp 1 e temp 2 nao sao usados pelo Parser, e uma cadeia
+// termina antes de outra comecar.
+public class StrengthReducer implements VMCommandSink {
+
+    static final int MAX_CHAIN = 32;
+
+    private final VMCommandSink out;
+
+    // ate dois push seguidos ainda nao emitidos
+    private final Segment[] segments = new Segment[2];
+    private final int[] indexes = new int[2];
+    private int held;
+
+    public StrengthReducer(VMCommandSink out) {
+        this.out = out;
+    }
+
+    public void writePush(Segment segment, int index) {
+        if (held == 2) {
+            out.writePush(segments[0], indexes[0]);
+            segments[0] = segments[1];
+            indexes[0] = indexes[1];
+            held = 1;
+        }
+        segments[held] = segment;
+        indexes[held] = index;
+        held++;
+    }
+
+    public void writeCall(String name, int nArgs) {
+        boolean multiply = name.equals("Math.multiply");
+        if (nArgs == 2 && held > 0 && (multiply || name.equals("Math.divide"))) {
+            int last = held - 1;
+            if (segments[last] == Segment.CONST && (multiply ? chainLength(indexes[last]) <= MAX_CHAIN : indexes[last] == 1)) {
+                int k = indexes[last];
+                held--;
+                flush();
+                if (multiply) {
+                    multiply(k);
+                }
+                return;
+            }
+            if (multiply && held == 2 && segments[0] == Segment.CONST && chainLength(indexes[0]) <= MAX_CHAIN) {
+                int k = indexes[0];
+                out.writePush(segments[1], indexes[1]);
+                held = 0;
+                multiply(k);
+                return;
+            }
+        }
+        flush();
+        out.writeCall(name, nArgs);
+    }
+
+    // numero de instrucoes que multiply(k) emite
+    static int chainLength(int k) {
+        if (k <= 1) {
+            return k == 0 ? 2 : 0;
+        }
+        int bits = 32 - Integer.numberOfLeadingZeros(k);
+        return 2 + 4 * (bits - 1) + 2 * (Integer.bitCount(k) - 1);
+    }
+
+    // x esta no topo da pilha
+    private void multiply(int k) {
+        if (k == 0) {
+            out.writePop(Segment.TEMP, 0);
+            out.writePush(Segment.CONST, 0);
+            return;
+        }
+        if (k == 1) {
+            return;
+        }
+        out.writePop(Segment.TEMP, 1);
+        out.writePush(Segment.TEMP, 1);
+        for (int bit = 30 - Integer.numberOfLeadingZeros(k); bit >= 0; bit--) {
+            out.writePop(Segment.TEMP, 2);
+            out.writePush(Segment.TEMP, 2);
+            out.writePush(Segment.TEMP, 2);
+            out.writeArithmetic(Command.ADD);
+            if ((k & (1 << bit)) != 0) {
+                out.writePush(Segment.TEMP, 1);
+                out.writeArithmetic(Command.ADD);
+            }
+        }
+    }
+
+    // emite os push guardados
+    public void flush() {
+        for (int i = 0; i < held; i++) {
+            out.writePush(segments[i], indexes[i]);
+        }
+        held = 0;
+    }
+
+    public void writePop(Segment segment, int index) {
+        flush();
+        out.writePop(segment, index);
+    }
+
+    public void writeArithmetic(Command command) {
+        flush();
+        out.writeArithmetic(command);
+    }
+
+    public void writeLabel(String label) {
+        flush();
+        out.writeLabel(label);
+    }
+
+    public void writeLabel(String prefix, int n) {
+        flush();
+        out.writeLabel(prefix, n);
+    }
+
+    public void writeGoto(String label) {
+        flush();
+        out.writeGoto(label);
+    }
+
+    public void writeGoto(String prefix, int n) {
+        flush();
+        out.writeGoto(prefix, n);
+    }
+
+    public void writeIf(String label) {
+        flush();
+        out.writeIf(label);
+    }
+
+    public void writeIf(String prefix, int n) {
+        flush();
+        out.writeIf(prefix, n);
+    }
+
+    public void writeFunction(String name, int nLocals) {
+        flush();
+        out.writeFunction(name, nLocals);
+    }
+
+    public void writeReturn() {
+        flush();
+        out.writeReturn();
+    }
+
+}
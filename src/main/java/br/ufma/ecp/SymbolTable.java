@@ -1,7 +1,6 @@
 package br.ufma.ecp;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class SymbolTable {
 
@@ -9,35 +8,48 @@ public class SymbolTable {
         STATIC, FIELD, ARG, VAR
     };
 
-    public static record Symbol(String name, String type, Kind kind, int index) {
+    public static record Symbol(String name, String type, Kind kind, int index, int typeId) {
     }
 
-    private Map<String, Symbol> classScope;
-    private Map<String, Symbol> subroutineScope;
-    private Map<Kind, Integer> countVars;
+    // os escopos sao indexados pelo id do identificador
+    private IdentifierTable identifiers;
+    private Symbol[] classScope;
+    private Symbol[] subroutineScope;
+    private int[] subroutineIds; // o que limpar em startSubroutine
+    private int subroutineCount;
+    private int[] countVars;
 
     public SymbolTable() {
-        classScope = new HashMap<>();
-        subroutineScope = new HashMap<>();
-        countVars = new HashMap<>();
+        this(new IdentifierTable());
+    }
 
-        countVars.put(Kind.ARG, 0);
-        countVars.put(Kind.VAR, 0);
-        countVars.put(Kind.STATIC, 0);
-        countVars.put(Kind.FIELD, 0);
+    public SymbolTable(IdentifierTable identifiers) {
+        this.identifiers = identifiers;
+        classScope = new Symbol[64];
+        subroutineScope = new Symbol[64];
+        subroutineIds = new int[16];
+        countVars = new int[Kind.values().length];
 
     }
 
     public void startSubroutine() {
 
-        subroutineScope.clear();
-        countVars.put(Kind.ARG, 0);
-        countVars.put(Kind.VAR, 0);
+        for (int i = 0; i < subroutineCount; i++) {
+            subroutineScope[subroutineIds[i]] = null;
+        }
+        subroutineCount = 0;
+        countVars[Kind.ARG.ordinal()] = 0;
+        countVars[Kind.VAR.ordinal()] = 0;
 
 
     }
 
-    private Map<String,Symbol> scope (Kind kind) {
+    private Symbol[] scope (Kind kind, int id) {
+        if (id >= classScope.length) {
+            int capacity = Math.max(id + 1, classScope.length * 2);
+            classScope = Arrays.copyOf(classScope, capacity);
+            subroutineScope = Arrays.copyOf(subroutineScope, capacity);
+        }
         if (kind == Kind.STATIC || kind == Kind.FIELD){
             return classScope;
         } else {
@@ -46,26 +58,46 @@ public class SymbolTable {
     }
 
     void define(String name, String type, Kind kind) {
+        define(identifiers.intern(name), type, kind);
+    }
+
+    void define(int id, String type, Kind kind) {
+        define(id, type, identifiers.intern(type), kind);
+    }
 
-        Map<String,Symbol> scopeTable = scope(kind);
-        if (scopeTable.get(name) != null) throw new RuntimeException ("variable already defined");
+    void define(int id, String type, int typeId, Kind kind) {
 
-        Symbol s = new Symbol(name, type, kind, varCount(kind));
-        scopeTable.put(name, s);
+        Symbol[] scopeTable = scope(kind, id);
+        if (scopeTable[id] != null) throw new RuntimeException ("variable already defined");
 
-        countVars.put(kind, countVars.get(kind) + 1);
+        Symbol s = new Symbol(identifiers.name(id), type, kind, varCount(kind), typeId);
+        scopeTable[id] = s;
+
+        if (scopeTable == subroutineScope) {
+            if (subroutineCount == subroutineIds.length) {
+                subroutineIds = Arrays.copyOf(subroutineIds, subroutineCount * 2);
+            }
+            subroutineIds[subroutineCount++] = id;
+        }
+
+        countVars[kind.ordinal()]++;
 
     }
 
     public Symbol resolve (String name) {
-        Symbol s = subroutineScope.get(name);
+        return resolve(identifiers.find(name)); // um nome desconhecido nao entra na tabela
+    }
+
+    public Symbol resolve (int id) {
+        if (id < 0 || id >= classScope.length) return null;
+        Symbol s = subroutineScope[id];
         if (s != null) return s;
-        else return classScope.get(name);
+        else return classScope[id];
 
     }
 
     int varCount(Kind kind) {
-        return countVars.get(kind);
+        return countVars[kind.ordinal()];
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,420 @@
+package br.ufma.ecp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import br.ufma.ecp.token.IdentifierToken;
+import br.ufma.ecp.token.IntegerToken;
+import br.ufma.ecp.token.KeywordToken;
+import br.ufma.ecp.token.StringToken;
+import br.ufma.ecp.token.SymbolToken;
+import br.ufma.ecp.token.Token;
+import br.ufma.ecp.token.TokenType;
+
+// Todos os tokens de um fonte guardados em arrays paralelos de primitivos
+// (tipo, inicio, tamanho, linha e valor). Nenhum objeto Token e criado durante
+// a analise; os lexemas so viram String quando alguem pede por eles. Para
+// identificadores o valor e o id na tabela de identificadores e para
+// constantes inteiras e o proprio numero.
+public class TokenBuffer {
+
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private ByteBuffer input;
+    private byte[] source; // copia editavel da entrada, criada na primeira edicao
+    private IdentifierTable identifiers;
+
+    private byte[] types;
+    private int[] starts;
+    private int[] lengths;
+    private int[] lines;
+    private int[] values;
+    private int size;
+    private int rescanned;
+
+    private TokenBuffer(ByteBuffer input, IdentifierTable identifiers, int capacity) {
+        this.input = input;
+        this.identifiers = identifiers;
+        types = new byte[capacity];
+        starts = new int[capacity];
+        lengths = new int[capacity];
+        lines = new int[capacity];
+        values = new int[capacity];
+    }
+
+    // analisa o fonte inteiro; o ultimo token guardado e sempre o EOF
+    public static TokenBuffer lex(byte[] input) {
+        return lex(ByteBuffer.wrap(input));
+    }
+
+    public static TokenBuffer lex(ByteBuffer input) {
+        var scan = new Scanner(input);
+        var buffer = new TokenBuffer(input, scan.identifiers(), input.limit() / 4 + 16);
+        TokenType type;
+        do {
+            type = scan.scan();
+            buffer.add(type, scan.tokenStart(), scan.tokenLength(), scan.line(), valueOf(type, scan));
+        } while (type != TokenType.EOF);
+        return buffer;
+    }
+
+    static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    // analisa pedacos da entrada em paralelo no ForkJoinPool comum; o
+    // resultado e identico ao de lex()
+    public static TokenBuffer lexParallel(ByteBuffer input) {
+        return lexParallel(input, DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    // Cada pedaco [from, to) e analisado como se comecasse fora de string e de
+    // comentario, com linha 1, e vai ate o primeiro token que comeca depois de
+    // "to". A juncao e sequencial: o pedaco seguinte so e aproveitado a partir
+    // do token onde o anterior parou (dali em diante a analise e a mesma), e as
+    // linhas sao corrigidas pela diferenca acumulada. Se o pedaco nao tem esse
+    // token (comecou dentro de uma string ou comentario), ele e reanalisado a
+    // partir do ponto certo.
+    public static TokenBuffer lexParallel(ByteBuffer input, int chunkSize, ForkJoinPool pool) {
+        int limit = input.limit();
+        int count = (int) ((limit + (long) chunkSize - 1) / chunkSize);
+        if (count < 2) {
+            return lex(input);
+        }
+
+        var tasks = new ArrayList<ForkJoinTask<Chunk>>(count);
+        for (int i = 0; i < count; i++) {
+            int from = i * chunkSize;
+            int to = chunkEnd(i, chunkSize, limit);
+            tasks.add(pool.submit(() -> lexChunk(input, from, to, 1, true)));
+        }
+
+        var result = new TokenBuffer(input, new IdentifierTable(), limit / 4 + 16);
+        int expected = 0; // onde a analise correta esta entre dois tokens
+        int line = 1;     // linha correta do token em "expected"
+        for (int i = 0; i < count; i++) {
+            var chunk = tasks.get(i).join();
+            int first = 0;
+            int delta = 0; // o primeiro pedaco ja comeca no estado certo
+            if (i > 0) {
+                first = chunk.find(expected);
+                if (first < 0) {
+                    chunk = lexChunk(input, expected, chunkEnd(i, chunkSize, limit), line, false);
+                    first = 0;
+                }
+                delta = line - chunk.lineAt(first);
+            }
+
+            // cada pedaco teve sua propria tabela de identificadores
+            var tokens = chunk.tokens;
+            var ids = new int[tokens.identifiers.size()];
+            Arrays.fill(ids, -1);
+            for (int k = first; k < tokens.size; k++) {
+                int value = tokens.values[k];
+                if (tokens.types[k] == TokenType.IDENT.ordinal()) {
+                    if (ids[value] < 0) {
+                        var lexeme = tokens.identifiers.bytes(value);
+                        ids[value] = result.identifiers.intern(ByteBuffer.wrap(lexeme), 0, lexeme.length);
+                    }
+                    value = ids[value];
+                }
+                result.add(TYPES[tokens.types[k]], tokens.starts[k], tokens.lengths[k], tokens.lines[k] + delta, value);
+            }
+            expected = chunk.resume;
+            line = chunk.resumeLine + delta;
+            if (chunk.eof) {
+                break;
+            }
+        }
+        result.add(TokenType.EOF, expected, 0, line, 0);
+        return result;
+    }
+
+    private static int chunkEnd(int index, int chunkSize, int limit) {
+        return (int) Math.min(limit, (index + 1L) * chunkSize);
+    }
+
+    // resultado da analise de um pedaco da entrada
+    private static class Chunk {
+        TokenBuffer tokens;
+        int resume;      // inicio do primeiro token que ja e do proximo pedaco
+        int resumeLine;  // linha desse token
+        boolean eof;     // a entrada acabou dentro do pedaco
+        boolean failed;  // a analise especulativa encontrou um erro
+
+        // indice do token que comeca em "offset", ou -1
+        int find(int offset) {
+            if (failed) {
+                return -1;
+            }
+            int index = tokens.indexOfBegin(offset);
+            if (index >= 0) {
+                return index;
+            }
+            return resume == offset ? tokens.size : -1;
+        }
+
+        int lineAt(int index) {
+            return index < tokens.size ? tokens.lines[index] : resumeLine;
+        }
+    }
+
+    private static Chunk lexChunk(ByteBuffer input, int from, int to, int line, boolean speculative) {
+        var chunk = new Chunk();
+        var scan = new Scanner(input, from, line, new IdentifierTable());
+        chunk.tokens = new TokenBuffer(input, scan.identifiers(), Math.max(0, to - from) / 4 + 16);
+        try {
+            for (;;) {
+                var type = scan.scan();
+                int begin = type == TokenType.STRING ? scan.tokenStart() - 1 : scan.tokenStart();
+                if (begin >= to || type == TokenType.EOF) {
+                    chunk.resume = begin;
+                    chunk.resumeLine = scan.line();
+                    chunk.eof = type == TokenType.EOF && begin < to;
+                    return chunk;
+                }
+                chunk.tokens.add(type, scan.tokenStart(), scan.tokenLength(), scan.line(), valueOf(type, scan));
+            }
+        } catch (Error e) {
+            // fora do ponto certo o erro pode ser falso; na reanalise ele vale
+            if (!speculative || e instanceof VirtualMachineError) {
+                throw e;
+            }
+            chunk.failed = true;
+            return chunk;
+        }
+    }
+
+    // Aplica uma edicao ao fonte (a partir de offset, remove "removed" bytes e
+    // insere "inserted") e atualiza este buffer no lugar; devolve ele mesmo.
+    // A reanalise comeca logo depois do ultimo token que termina antes da
+    // edicao e para no primeiro token, depois dela, que comeca onde um token
+    // antigo comecava: dali em diante o resultado e o mesmo. O fonte e os
+    // arrays crescem dobrando e so o final (depois da edicao) e deslocado, com
+    // posicoes e linhas corrigidas; o resto nao e tocado. A primeira edicao
+    // copia a entrada, que pode ser do chamador ou um arquivo mapeado.
+    public TokenBuffer edit(int offset, int removed, byte[] inserted) {
+        int oldLimit = input.limit();
+        // validado antes de mexer em qualquer coisa: o buffer nunca fica pela metade
+        if (inserted == null) {
+            throw new IllegalArgumentException("inserted is null");
+        }
+        if (offset < 0 || removed < 0 || offset > oldLimit - removed) {
+            throw new IllegalArgumentException("Edit [" + offset + ", " + offset + "+" + removed
+                    + ") outside the source (0.." + oldLimit + ")");
+        }
+        int newLimit = oldLimit - removed + inserted.length;
+        if (source == null || source.length < newLimit) {
+            var grown = new byte[Math.max(newLimit, oldLimit + oldLimit / 2 + 16)];
+            input.get(0, grown, 0, oldLimit);
+            source = grown;
+        }
+        System.arraycopy(source, offset + removed, source, offset + inserted.length, oldLimit - offset - removed);
+        System.arraycopy(inserted, 0, source, offset, inserted.length);
+        input = ByteBuffer.wrap(source).limit(newLimit);
+
+        int delta = inserted.length - removed;
+        int editEnd = offset + inserted.length; // fim da edicao no novo fonte
+
+        // tokens que terminam antes da edicao (e cujo byte seguinte, que decide
+        // onde eles terminam, tambem vem antes) ficam como estao
+        int keep = 0;
+        int low = 0;
+        int high = size - 2; // o EOF nunca e mantido
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (end(mid) < offset) {
+                keep = mid + 1;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        // os tokens novos ficam a parte ate se saber quantos antigos eles trocam
+        var fresh = new TokenBuffer(input, identifiers, 16);
+        int restart = keep > 0 ? end(keep - 1) : 0;
+        int line = keep > 0 ? lines[keep - 1] : 1;
+        var scan = new Scanner(input, restart, line, identifiers);
+        int old = size; // primeiro token antigo que continua valendo
+        int lineDelta = 0;
+        for (;;) {
+            var type = scan.scan();
+            int begin = type == TokenType.STRING ? scan.tokenStart() - 1 : scan.tokenStart();
+            if (begin >= editEnd) {
+                int index = indexOfBegin(begin - delta);
+                if (index >= 0) {
+                    old = index;
+                    lineDelta = scan.line() - lines[index];
+                    break;
+                }
+            }
+            fresh.add(type, scan.tokenStart(), scan.tokenLength(), scan.line(), valueOf(type, scan));
+            if (type == TokenType.EOF) {
+                break;
+            }
+        }
+
+        // [keep, old) vira os tokens novos; [old, size) so muda de lugar
+        int tail = size - old;
+        int at = keep + fresh.size;
+        if (at + tail > types.length) {
+            grow(Math.max(at + tail, types.length * 2));
+        }
+        if (at != old) {
+            System.arraycopy(types, old, types, at, tail);
+            System.arraycopy(starts, old, starts, at, tail);
+            System.arraycopy(lengths, old, lengths, at, tail);
+            System.arraycopy(lines, old, lines, at, tail);
+            System.arraycopy(values, old, values, at, tail);
+        }
+        if (delta != 0 || lineDelta != 0) {
+            for (int i = at; i < at + tail; i++) {
+                starts[i] += delta;
+                lines[i] += lineDelta;
+            }
+        }
+        System.arraycopy(fresh.types, 0, types, keep, fresh.size);
+        System.arraycopy(fresh.starts, 0, starts, keep, fresh.size);
+        System.arraycopy(fresh.lengths, 0, lengths, keep, fresh.size);
+        System.arraycopy(fresh.lines, 0, lines, keep, fresh.size);
+        System.arraycopy(fresh.values, 0, values, keep, fresh.size);
+        size = at + tail;
+        rescanned = fresh.size;
+        return this;
+    }
+
+    // quantos tokens a ultima edicao precisou reanalisar
+    int rescanned() {
+        return rescanned;
+    }
+
+    // indice do token que comeca em offset, ou -1
+    private int indexOfBegin(int offset) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int begin = begin(mid);
+            if (begin < offset) {
+                low = mid + 1;
+            } else if (begin > offset) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    // onde o token comeca na entrada (strings incluem a aspa de abertura)
+    private int begin(int index) {
+        return types[index] == TokenType.STRING.ordinal() ? starts[index] - 1 : starts[index];
+    }
+
+    // onde o token termina (strings incluem a aspa de fechamento)
+    private int end(int index) {
+        int end = starts[index] + lengths[index];
+        return types[index] == TokenType.STRING.ordinal() ? end + 1 : end;
+    }
+
+    private static int valueOf(TokenType type, Scanner scan) {
+        if (type == TokenType.IDENT) {
+            return scan.identifierId();
+        }
+        return type == TokenType.INTEGER ? scan.intValue() : 0;
+    }
+
+    private void add(TokenType type, int start, int length, int line, int value) {
+        if (size == types.length) {
+            grow(size * 2);
+        }
+        types[size] = (byte) type.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        lines[size] = line;
+        values[size] = value;
+        size++;
+    }
+
+    private void grow(int capacity) {
+        types = Arrays.copyOf(types, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+        values = Arrays.copyOf(values, capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    public int start(int index) {
+        return starts[index];
+    }
+
+    public int length(int index) {
+        return lengths[index];
+    }
+
+    public int line(int index) {
+        return lines[index];
+    }
+
+    // id do identificador em identifiers()
+    public int id(int index) {
+        return values[index];
+    }
+
+    // valor de uma constante inteira
+    public int intValue(int index) {
+        return values[index];
+    }
+
+    public IdentifierTable identifiers() {
+        return identifiers;
+    }
+
+    public String lexeme(int index) {
+        return Scanner.decode(input, starts[index], lengths[index]);
+    }
+
+    // mesmo resultado de Token.value()
+    public String value(int index) {
+        var type = type(index);
+        if (type.value != null) {
+            return type.value;
+        }
+        if (type == TokenType.IDENT) {
+            return identifiers.name(values[index]);
+        }
+        return type == TokenType.EOF ? null : lexeme(index);
+    }
+
+    // cria o objeto Token equivalente, para quem ainda precisa dele
+    public Token token(int index) {
+        var type = type(index);
+        int line = lines[index];
+        switch (type) {
+            case STRING:
+                return new StringToken(lexeme(index), line);
+            case INTEGER:
+                return new IntegerToken(lexeme(index), values[index], line);
+            case IDENT:
+                return new IdentifierToken(identifiers.name(values[index]), values[index], line);
+            case EOF:
+                return new Token(type, line);
+            default:
+                if (TokenType.isKeyword(type)) {
+                    return new KeywordToken(type, line);
+                }
+                return new SymbolToken(type, line);
+        }
+    }
+
+}
@@ -0,0 +1,214 @@
+package br.ufma.ecp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
+import java.util.Arrays;
+
+import br.ufma.ecp.VMCode.Opcode;
+
+// Formato binario do codigo VM, equivalente ao texto do VMWriter:
+//
+//   "JVMB" versao
+//   n_nomes (nome: tamanho bytes)*     tabela de nomes de funcoes e rotulos
+//   n_instrucoes instrucao*
+//
+// Cada instrucao comeca com um byte: opcode << 4 | segmento ou comando.
+// Os operandos seguem como varints (7 bits por byte, o bit alto indica que
+// ha mais bytes): o indice do push/pop, o id do nome dos rotulos e, em
+// call e function, o id do nome seguido de nArgs ou nLocals.
+public class VMBinary {
+
+    private static final byte[] MAGIC = {'J', 'V', 'M', 'B'};
+    private static final int VERSION = 1;
+
+    private static final Opcode[] OPCODES = Opcode.values();
+    private static final int SEGMENTS = VMCommandSink.Segment.values().length;
+    private static final int COMMANDS = VMCommandSink.Command.values().length;
+
+    public static byte[] encode(VMCode code) {
+        var out = new ByteArrayOutputStream(code.size() * 2 + 64);
+        try {
+            write(code, out);
+        } catch (IOException e) {
+            throw new AssertionError(e); // ByteArrayOutputStream nao falha
+        }
+        return out.toByteArray();
+    }
+
+    public static void write(VMCode code, OutputStream out) throws IOException {
+        var buffer = new Buffer(code.size() * 2 + 64);
+        buffer.bytes(MAGIC);
+        buffer.put(VERSION);
+
+        var names = code.names();
+        buffer.varint(names.size());
+        for (int id = 0; id < names.size(); id++) {
+            var name = names.bytes(id);
+            buffer.varint(name.length);
+            buffer.bytes(name);
+        }
+
+        buffer.varint(code.size());
+        for (int i = 0; i < code.size(); i++) {
+            var opcode = code.opcode(i);
+            switch (opcode) {
+                case PUSH:
+                case POP:
+                    buffer.put(opcode.ordinal() << 4 | code.segment(i).ordinal());
+                    buffer.varint(code.operand(i));
+                    break;
+                case ARITHMETIC:
+                    buffer.put(opcode.ordinal() << 4 | code.command(i).ordinal());
+                    break;
+                case LABEL:
+                case GOTO:
+                case IF_GOTO:
+                    buffer.put(opcode.ordinal() << 4);
+                    buffer.varint(code.nameId(i));
+                    break;
+                case CALL:
+                case FUNCTION:
+                    buffer.put(opcode.ordinal() << 4);
+                    buffer.varint(code.nameId(i));
+                    buffer.varint(code.operand(i));
+                    break;
+                case RETURN:
+                    buffer.put(opcode.ordinal() << 4);
+                    break;
+            }
+        }
+        out.write(buffer.bytes, 0, buffer.count);
+    }
+
+    public static VMCode read(InputStream in) throws IOException {
+        return decode(in.readAllBytes());
+    }
+
+    public static VMCode decode(byte[] bytes) throws IOException {
+        var input = ByteBuffer.wrap(bytes);
+        try {
+            for (byte b : MAGIC) {
+                if (input.get() != b) {
+                    throw new IOException("Not a binary VM file");
+                }
+            }
+            if (input.get() != VERSION) {
+                throw new IOException("Unsupported binary VM version");
+            }
+
+            var names = new IdentifierTable();
+            int count = varint(input);
+            for (int id = 0; id < count; id++) {
+                int length = varint(input);
+                if (length < 0 || length > input.remaining()) {
+                    throw new IOException("Bad name length " + length);
+                }
+                // os nomes sao distintos, entao o id internado e o mesmo do arquivo
+                if (names.intern(input, input.position(), length) != id) {
+                    throw new IOException("Duplicate name " + id);
+                }
+                input.position(input.position() + length);
+            }
+
+            var code = new VMCode(names);
+            int size = varint(input);
+            for (int i = 0; i < size; i++) {
+                int b = input.get() & 0xFF;
+                int op = b >>> 4;
+                if (op >= OPCODES.length) {
+                    throw new IOException("Bad opcode " + op + " at instruction " + i);
+                }
+                var opcode = OPCODES[op];
+                switch (opcode) {
+                    case PUSH:
+                    case POP:
+                        code.add(opcode, operandKind(b, SEGMENTS), varint(input));
+                        break;
+                    case ARITHMETIC:
+                        code.add(opcode, operandKind(b, COMMANDS), 0);
+                        break;
+                    case LABEL:
+                    case GOTO:
+                    case IF_GOTO:
+                        code.add(opcode, name(input, names), 0);
+                        break;
+                    case CALL:
+                    case FUNCTION:
+                        int name = name(input, names);
+                        code.add(opcode, name, varint(input));
+                        break;
+                    case RETURN:
+                        code.add(opcode, 0, 0);
+                        break;
+                }
+            }
+            return code;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Truncated binary VM file", e);
+        }
+    }
+
+    // segmento ou comando, nos 4 bits baixos do byte da instrucao
+    private static int operandKind(int b, int count) throws IOException {
+        if ((b & 0xF) >= count) {
+            throw new IOException("Bad instruction byte " + b);
+        }
+        return b & 0xF;
+    }
+
+    private static int name(ByteBuffer input, IdentifierTable names) throws IOException {
+        int id = varint(input);
+        if (id >= names.size()) {
+            throw new IOException("Bad name id " + id);
+        }
+        return id;
+    }
+
+    private static int varint(ByteBuffer input) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = input.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    // byte[] que cresce, para nao pagar uma chamada por byte no OutputStream
+    private static class Buffer {
+        byte[] bytes;
+        int count;
+
+        Buffer(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void put(int b) {
+            if (count == bytes.length) {
+                bytes = Arrays.copyOf(bytes, count * 2);
+            }
+            bytes[count++] = (byte) b;
+        }
+
+        void bytes(byte[] b) {
+            for (byte x : b) {
+                put(x);
+            }
+        }
+
+        void varint(int value) {
+            while ((value & ~0x7F) != 0) {
+                put((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            put(value);
+        }
+    }
+
+}
@@ -0,0 +1,187 @@
+package br.ufma.ecp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+// Codigo VM em memoria, como inteiros em arrays paralelos: o opcode, o
+// argumento (ordinal do segmento ou comando, ou id do nome do rotulo ou
+// funcao) e o operando (indice, nArgs ou nLocals). Os nomes ficam internados
+// numa IdentifierTable propria. E preenchido pela mesma interface do
+// VMWriter e percorrido sem alocar nada; o texto so e gerado quando pedido.
+public class VMCode implements VMCommandSink {
+
+    public enum Opcode {
+        PUSH, POP, ARITHMETIC, LABEL, GOTO, IF_GOTO, CALL, FUNCTION, RETURN
+    }
+
+    private static final Opcode[] OPCODES = Opcode.values();
+    private static final Segment[] SEGMENTS = Segment.values();
+    private static final Command[] COMMANDS = Command.values();
+
+    private final IdentifierTable names;
+
+    private byte[] opcodes;
+    private int[] args;
+    private int[] operands;
+    private int size;
+
+    public VMCode() {
+        this(new IdentifierTable());
+    }
+
+    public VMCode(IdentifierTable names) {
+        this.names = names;
+        opcodes = new byte[256];
+        args = new int[256];
+        operands = new int[256];
+    }
+
+    public void writePush(Segment segment, int index) {
+        add(Opcode.PUSH, segment.ordinal(), index);
+    }
+
+    public void writePop(Segment segment, int index) {
+        add(Opcode.POP, segment.ordinal(), index);
+    }
+
+    public void writeArithmetic(Command command) {
+        add(Opcode.ARITHMETIC, command.ordinal(), 0);
+    }
+
+    public void writeLabel(String label) {
+        add(Opcode.LABEL, names.intern(label), 0);
+    }
+
+    public void writeGoto(String label) {
+        add(Opcode.GOTO, names.intern(label), 0);
+    }
+
+    public void writeIf(String label) {
+        add(Opcode.IF_GOTO, names.intern(label), 0);
+    }
+
+    public void writeCall(String name, int nArgs) {
+        add(Opcode.CALL, names.intern(name), nArgs);
+    }
+
+    public void writeFunction(String name, int nLocals) {
+        add(Opcode.FUNCTION, names.intern(name), nLocals);
+    }
+
+    public void writeReturn() {
+        add(Opcode.RETURN, 0, 0);
+    }
+
+    void add(Opcode opcode, int arg, int operand) {
+        if (size == opcodes.length) {
+            int capacity = size * 2;
+            opcodes = Arrays.copyOf(opcodes, capacity);
+            args = Arrays.copyOf(args, capacity);
+            operands = Arrays.copyOf(operands, capacity);
+        }
+        opcodes[size] = (byte) opcode.ordinal();
+        args[size] = arg;
+        operands[size] = operand;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // descarta as instrucoes a partir de size; usado pelos passes de otimizacao
+    void truncate(int size) {
+        this.size = size;
+    }
+
+    // argumento cru: ordinal do segmento ou comando, ou id do nome
+    int arg(int index) {
+        return args[index];
+    }
+
+    public Opcode opcode(int index) {
+        return OPCODES[opcodes[index]];
+    }
+
+    // segmento de um push ou pop
+    public Segment segment(int index) {
+        return SEGMENTS[args[index]];
+    }
+
+    // comando de uma instrucao aritmetica
+    public Command command(int index) {
+        return COMMANDS[args[index]];
+    }
+
+    // id em names() do rotulo ou da funcao
+    public int nameId(int index) {
+        return args[index];
+    }
+
+    public String name(int index) {
+        return names.name(args[index]);
+    }
+
+    // indice do push/pop, nArgs do call ou nLocals do function
+    public int operand(int index) {
+        return operands[index];
+    }
+
+    public IdentifierTable names() {
+        return names;
+    }
+
+    // reenvia as instrucoes [from, to) para outro sink
+    public void replay(int from, int to, VMCommandSink sink) {
+        for (int i = from; i < to; i++) {
+            switch (opcode(i)) {
+                case PUSH:
+                    sink.writePush(segment(i), operands[i]);
+                    break;
+                case POP:
+                    sink.writePop(segment(i), operands[i]);
+                    break;
+                case ARITHMETIC:
+                    sink.writeArithmetic(command(i));
+                    break;
+                case LABEL:
+                    sink.writeLabel(name(i));
+                    break;
+                case GOTO:
+                    sink.writeGoto(name(i));
+                    break;
+                case IF_GOTO:
+                    sink.writeIf(name(i));
+                    break;
+                case CALL:
+                    sink.writeCall(name(i), operands[i]);
+                    break;
+                case FUNCTION:
+                    sink.writeFunction(name(i), operands[i]);
+                    break;
+                case RETURN:
+                    sink.writeReturn();
+                    break;
+            }
+        }
+    }
+
+    public void replay(VMCommandSink sink) {
+        replay(0, size, sink);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        var writer = new VMWriter();
+        replay(writer);
+        writer.writeTo(out);
+    }
+
+    // o texto VM, gerado sob demanda
+    public String toString() {
+        var writer = new VMWriter();
+        replay(writer);
+        return writer.vmOutput();
+    }
+
+}
@@ -0,0 +1,71 @@
+package br.ufma.ecp;
+
+// Destino das instrucoes VM geradas pelo Parser. O VMWriter produz o texto;
+// outras implementacoes podem montar uma representacao em memoria ou
+// alimentar direto um backend, sem passar por texto.
+public interface VMCommandSink {
+
+    enum Segment {
+        CONST("constant"),
+        ARG("argument"),
+        LOCAL("local"),
+        STATIC("static"),
+        THIS("this"),
+        THAT("that"),
+        POINTER("pointer"),
+        TEMP("temp");
+
+        private Segment(String value) {
+            this.value = value;
+        }
+
+        public final String value;
+    };
+
+    enum Command {
+        ADD,
+        SUB,
+        NEG,
+        EQ,
+        GT,
+        LT,
+        AND,
+        OR,
+        NOT;
+
+        public final String value = name().toLowerCase();
+    };
+
+    void writePush(Segment segment, int index);
+
+    void writePop(Segment segment, int index);
+
+    void writeArithmetic(Command command);
+
+    void writeLabel(String label);
+
+    void writeGoto(String label);
+
+    void writeIf(String label);
+
+    void writeCall(String name, int nArgs);
+
+    void writeFunction(String name, int nLocals);
+
+    void writeReturn();
+
+    // rotulos gerados pelo parser: prefixo seguido do numero. Quem puder
+    // evitar montar a String sobrescreve estes metodos.
+    default void writeLabel(String prefix, int n) {
+        writeLabel(prefix + n);
+    }
+
+    default void writeGoto(String prefix, int n) {
+        writeGoto(prefix + n);
+    }
+
+    default void writeIf(String prefix, int n) {
+        writeIf(prefix + n);
+    }
+
+}
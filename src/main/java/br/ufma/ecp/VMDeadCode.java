@@ -0,0 +1,119 @@
+package br.ufma.ecp;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import br.ufma.ecp.VMCode.Opcode;
+
+// Remove, funcao por funcao, o que o fluxo de controle nunca usa:
+//
+//   - instrucoes inalcancaveis a partir do inicio da funcao (o codigo depois
+//     de um return ou goto, o goto IF_END de um if cujos dois ramos retornam)
+//   - rotulos que nenhum goto/if-goto alcancavel usa
+//   - goto L quando entre ele e label L so ha rotulos
+//
+// Uma remocao pode liberar outra (tirar um goto deixa o rotulo sem uso), entao
+// as tres sao repetidas ate nada mudar.
+public class VMDeadCode {
+
+    public static VMCode optimize(VMCode code) {
+        var out = new VMCode(code.names());
+        int from = 0;
+        for (int i = 1; i <= code.size(); i++) {
+            if (i == code.size() || code.opcode(i) == Opcode.FUNCTION) {
+                function(code, from, i, out);
+                from = i;
+            }
+        }
+        return out;
+    }
+
+    // instrucoes [from, to) de code
+    private static void function(VMCode code, int from, int to, VMCode out) {
+        Map<Integer, Integer> labels = new HashMap<>();
+        for (int i = from; i < to; i++) {
+            if (code.opcode(i) == Opcode.LABEL) {
+                labels.put(code.nameId(i), i);
+            }
+        }
+
+        var keep = new boolean[to - from];
+        Arrays.fill(keep, true);
+        var reached = new boolean[to - from];
+        Set<Integer> used = new HashSet<>();
+        var pending = new int[to - from];
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            Arrays.fill(reached, false);
+            used.clear();
+            int count = 0;
+            if (to > from) {
+                pending[count++] = from;
+            }
+            while (count > 0) {
+                int i = next(keep, from, to, pending[--count]);
+                while (i < to && !reached[i - from]) {
+                    reached[i - from] = true;
+                    var opcode = code.opcode(i);
+                    if (opcode == Opcode.GOTO || opcode == Opcode.IF_GOTO) {
+                        used.add(code.nameId(i));
+                        var target = labels.get(code.nameId(i));
+                        if (target != null && !reached[target - from]) {
+                            pending[count++] = target;
+                        }
+                    }
+                    if (opcode == Opcode.GOTO || opcode == Opcode.RETURN) {
+                        break;
+                    }
+                    i = next(keep, from, to, i + 1);
+                }
+            }
+
+            for (int i = from; i < to; i++) {
+                boolean live = reached[i - from]
+                        && !(code.opcode(i) == Opcode.LABEL && !used.contains(code.nameId(i)))
+                        && !(code.opcode(i) == Opcode.GOTO && jumpsToNext(code, keep, from, to, i));
+                if (keep[i - from] && !live) {
+                    keep[i - from] = false;
+                    changed = true;
+                }
+            }
+        }
+
+        for (int i = from; i < to; i++) {
+            if (keep[i - from]) {
+                out.add(code.opcode(i), code.arg(i), code.operand(i));
+            }
+        }
+    }
+
+    // primeira instrucao mantida a partir de i
+    private static int next(boolean[] keep, int from, int to, int i) {
+        while (i < to && !keep[i - from]) {
+            i++;
+        }
+        return i;
+    }
+
+    // so ha rotulos entre o goto em i e o seu alvo
+    private static boolean jumpsToNext(VMCode code, boolean[] keep, int from, int to, int i) {
+        for (int j = i + 1; j < to; j++) {
+            if (!keep[j - from]) {
+                continue;
+            }
+            if (code.opcode(j) != Opcode.LABEL) {
+                return false;
+            }
+            if (code.nameId(j) == code.nameId(i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
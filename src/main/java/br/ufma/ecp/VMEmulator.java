@@ -0,0 +1,479 @@
+package br.ufma.ecp;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import br.ufma.ecp.VMCode.Opcode;
+
+// Executa codigo VM (um VMCode por classe) numa memoria de 16 bits no
+// layout do Hack: SP, LCL, ARG, THIS e THAT em RAM[0..4], temp em RAM[5..12],
+// static a partir de RAM[16], pilha a partir de 256 e heap a partir de 2048.
+// As funcoes do sistema operacional que o programa nao define sao
+// implementadas aqui; as de saida (Output, Screen, Sys.error) ficam
+// registradas em trace(), que e o que se compara para ver se dois codigos se
+// comportam igual. O teclado le de uma sequencia dada por input().
+// As instrucoes sao achatadas num unico array, com saltos e chamadas ja
+// resolvidos, e executadas sem alocar nada.
+public class VMEmulator {
+
+    private static final Opcode[] OPCODES = Opcode.values();
+    private static final VMCommandSink.Segment[] SEGMENTS = VMCommandSink.Segment.values();
+    private static final VMCommandSink.Command[] COMMANDS = VMCommandSink.Command.values();
+
+    private static final int SP = 0, LCL = 1, ARG = 2, THIS = 3, THAT = 4, TEMP = 5;
+    private static final int STATIC = 16, STACK = 256, HEAP = 2048, SCREEN = 16384;
+
+    private static final String[] BUILTINS = {
+            "Math.multiply", "Math.divide", "Math.min", "Math.max", "Math.abs", "Math.sqrt",
+            "Memory.alloc", "Memory.deAlloc", "Memory.peek", "Memory.poke",
+            "Array.new", "Array.dispose",
+            "String.new", "String.dispose", "String.length", "String.charAt", "String.appendChar",
+            "Output.printInt", "Output.printString", "Output.printChar", "Output.println", "Output.moveCursor",
+            "Screen.clearScreen", "Screen.setColor", "Screen.drawPixel", "Screen.drawLine",
+            "Screen.drawRectangle", "Screen.drawCircle",
+            "Keyboard.keyPressed", "Keyboard.readChar", "Keyboard.readInt",
+            "Sys.wait", "Sys.halt", "Sys.error",
+    };
+
+    // instrucoes achatadas: opcode, argumento resolvido e operando
+    private byte[] opcodes;
+    private int[] args;
+    private int[] operands;
+    private final Map<String, Integer> functions = new HashMap<>();
+
+    private final int[] ram = new int[32768];
+    private int[] returns = new int[1024]; // enderecos de retorno, fora da RAM
+    private int depth;
+    private int heap;
+    private long steps;
+    private boolean halted;
+
+    private int[] input = new int[0];
+    private int inputPosition;
+    private final StringBuilder trace = new StringBuilder();
+
+    public VMEmulator(VMCode... units) {
+        int size = 0;
+        for (VMCode unit : units) {
+            size += unit.size();
+        }
+        opcodes = new byte[size];
+        args = new int[size];
+        operands = new int[size];
+
+        // primeiro as funcoes, para resolver as chamadas entre classes
+        int pc = 0;
+        for (VMCode unit : units) {
+            for (int i = 0; i < unit.size(); i++, pc++) {
+                if (unit.opcode(i) == Opcode.FUNCTION) {
+                    functions.put(unit.name(i), pc);
+                }
+            }
+        }
+        pc = 0;
+        int staticBase = STATIC;
+        for (VMCode unit : units) {
+            int statics = 0;
+            for (int i = 0; i < unit.size(); i++) {
+                var opcode = unit.opcode(i);
+                opcodes[pc + i] = (byte) opcode.ordinal();
+                operands[pc + i] = unit.operand(i);
+                switch (opcode) {
+                    case PUSH:
+                    case POP:
+                        args[pc + i] = unit.segment(i).ordinal();
+                        if (unit.segment(i) == VMCommandSink.Segment.STATIC) {
+                            statics = Math.max(statics, unit.operand(i) + 1);
+                            operands[pc + i] = staticBase + unit.operand(i);
+                        }
+                        break;
+                    case ARITHMETIC:
+                        args[pc + i] = unit.command(i).ordinal();
+                        break;
+                    case CALL:
+                        args[pc + i] = callTarget(unit.name(i));
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            // os rotulos valem dentro da funcao
+            int from = 0;
+            for (int i = 1; i <= unit.size(); i++) {
+                if (i == unit.size() || unit.opcode(i) == Opcode.FUNCTION) {
+                    resolveJumps(unit, from, i, pc);
+                    from = i;
+                }
+            }
+
+            pc += unit.size();
+            staticBase += statics;
+            if (staticBase > STACK) {
+                throw new Error("Too many static variables");
+            }
+        }
+    }
+
+    // instrucoes [from, to) de unit, que comecam em base no array achatado
+    private void resolveJumps(VMCode unit, int from, int to, int base) {
+        Map<Integer, Integer> labels = new HashMap<>();
+        for (int i = from; i < to; i++) {
+            if (unit.opcode(i) == Opcode.LABEL) {
+                labels.put(unit.nameId(i), base + i);
+            }
+        }
+        for (int i = from; i < to; i++) {
+            if (unit.opcode(i) == Opcode.GOTO || unit.opcode(i) == Opcode.IF_GOTO) {
+                var target = labels.get(unit.nameId(i));
+                if (target == null) {
+                    throw new Error("Undefined label " + unit.name(i));
+                }
+                args[base + i] = target;
+            }
+        }
+    }
+
+    // >= 0: inicio da funcao; < 0: -(indice em BUILTINS) - 1
+    private int callTarget(String name) {
+        var target = functions.get(name);
+        if (target != null) {
+            return target;
+        }
+        for (int i = 0; i < BUILTINS.length; i++) {
+            if (BUILTINS[i].equals(name)) {
+                return -i - 1;
+            }
+        }
+        throw new Error("Undefined function " + name);
+    }
+
+    // valores devolvidos pelo teclado, em ordem; depois deles keyPressed da 0
+    public VMEmulator input(int... values) {
+        input = values;
+        inputPosition = 0;
+        return this;
+    }
+
+    public String trace() {
+        return trace.toString();
+    }
+
+    // instrucoes executadas
+    public long steps() {
+        return steps;
+    }
+
+    // palavras do heap alocadas (Memory.deAlloc nao devolve nada)
+    public int heapUsed() {
+        return heap - HEAP;
+    }
+
+    // chama a funcao (sem argumentos) e executa ate ela retornar
+    public int run(String function, long maxSteps) {
+        var entry = functions.get(function);
+        if (entry == null) {
+            throw new Error("Undefined function " + function);
+        }
+        ram[SP] = STACK;
+        ram[LCL] = STACK;
+        ram[ARG] = STACK;
+        heap = HEAP;
+        depth = 0;
+        halted = false;
+        execute(call(entry, 0, -1), maxSteps);
+        return halted ? 0 : ram[ram[SP] - 1];
+    }
+
+    private void execute(int pc, long maxSteps) {
+        long limit = steps + maxSteps;
+        while (pc >= 0 && !halted) {
+            if (++steps > limit) {
+                throw new Error("Step limit exceeded");
+            }
+            int arg = args[pc];
+            int operand = operands[pc];
+            switch (OPCODES[opcodes[pc]]) {
+                case PUSH:
+                    push(read(arg, operand));
+                    pc++;
+                    break;
+                case POP:
+                    write(arg, operand, pop());
+                    pc++;
+                    break;
+                case ARITHMETIC:
+                    arithmetic(arg);
+                    pc++;
+                    break;
+                case LABEL:
+                    pc++;
+                    break;
+                case GOTO:
+                    pc = arg;
+                    break;
+                case IF_GOTO:
+                    pc = pop() != 0 ? arg : pc + 1;
+                    break;
+                case CALL:
+                    if (arg < 0) {
+                        builtin(-arg - 1, operand);
+                        pc++;
+                    } else {
+                        pc = call(arg, operand, pc);
+                    }
+                    break;
+                case FUNCTION:
+                    for (int i = 0; i < operand; i++) {
+                        push(0);
+                    }
+                    pc++;
+                    break;
+                case RETURN:
+                    pc = ret();
+                    break;
+            }
+        }
+    }
+
+    // monta o quadro da chamada e devolve o pc da funcao chamada
+    private int call(int function, int nArgs, int returnPc) {
+        if (depth == returns.length) {
+            if (depth >= 1 << 16) {
+                throw new Error("Stack overflow");
+            }
+            returns = Arrays.copyOf(returns, depth * 2);
+        }
+        returns[depth++] = returnPc;
+        push(ram[LCL]);
+        push(ram[ARG]);
+        push(ram[THIS]);
+        push(ram[THAT]);
+        ram[ARG] = ram[SP] - nArgs - 4;
+        ram[LCL] = ram[SP];
+        return function;
+    }
+
+    // devolve o pc seguinte a chamada, ou -1 ao sair da funcao inicial
+    private int ret() {
+        int frame = ram[LCL];
+        int value = pop();
+        int arg = ram[ARG];
+        // sem argumentos, ram[ARG] e a propria copia do LCL salvo: le o
+        // quadro antes de gravar o valor de retorno
+        int that = ram[frame - 1];
+        int self = ram[frame - 2];
+        int savedArg = ram[frame - 3];
+        int savedLcl = ram[frame - 4];
+        ram[arg] = value;
+        ram[SP] = arg + 1;
+        ram[THAT] = that;
+        ram[THIS] = self;
+        ram[ARG] = savedArg;
+        ram[LCL] = savedLcl;
+        int returnPc = returns[--depth];
+        return returnPc < 0 ? -1 : returnPc + 1;
+    }
+
+    private int address(int segment, int index) {
+        switch (SEGMENTS[segment]) {
+            case ARG:
+                return ram[ARG] + index;
+            case LOCAL:
+                return ram[LCL] + index;
+            case STATIC:
+                return index; // ja resolvido na carga
+            case THIS:
+                return ram[THIS] + index;
+            case THAT:
+                return ram[THAT] + index;
+            case POINTER:
+                return THIS + index;
+            case TEMP:
+                return TEMP + index;
+            default:
+                throw new Error("Bad segment");
+        }
+    }
+
+    private int read(int segment, int index) {
+        if (segment == VMCommandSink.Segment.CONST.ordinal()) {
+            return (short) index;
+        }
+        return ram[check(address(segment, index))];
+    }
+
+    private void write(int segment, int index, int value) {
+        if (segment == VMCommandSink.Segment.CONST.ordinal()) {
+            throw new Error("pop constant");
+        }
+        ram[check(address(segment, index))] = value;
+    }
+
+    private static int check(int address) {
+        if (address < 0 || address >= 32768) {
+            throw new Error("Bad address " + address);
+        }
+        return address;
+    }
+
+    private void push(int value) {
+        ram[check(ram[SP])] = value;
+        ram[SP]++;
+    }
+
+    private int pop() {
+        ram[SP]--;
+        return ram[check(ram[SP])];
+    }
+
+    private void arithmetic(int command) {
+        var c = COMMANDS[command];
+        if (c == VMCommandSink.Command.NEG) {
+            push((short) -pop());
+            return;
+        }
+        if (c == VMCommandSink.Command.NOT) {
+            push((short) ~pop());
+            return;
+        }
+        int y = pop();
+        int x = pop();
+        switch (c) {
+            case ADD:
+                push((short) (x + y));
+                break;
+            case SUB:
+                push((short) (x - y));
+                break;
+            case EQ:
+                push(x == y ? -1 : 0);
+                break;
+            case GT:
+                push(x > y ? -1 : 0);
+                break;
+            case LT:
+                push(x < y ? -1 : 0);
+                break;
+            case AND:
+                push(x & y);
+                break;
+            case OR:
+                push(x | y);
+                break;
+            default:
+                break;
+        }
+    }
+
+    // os argumentos estao nas ultimas nArgs posicoes da pilha
+    private void builtin(int builtin, int nArgs) {
+        int base = ram[SP] - nArgs;
+        int a = nArgs > 0 ? ram[base] : 0;
+        int b = nArgs > 1 ? ram[base + 1] : 0;
+        int result = 0;
+        switch (BUILTINS[builtin]) {
+            case "Math.multiply":
+                result = (short) (a * b);
+                break;
+            case "Math.divide":
+                if (b == 0) {
+                    throw new Error("Division by zero");
+                }
+                result = (short) (a / b);
+                break;
+            case "Math.min":
+                result = Math.min(a, b);
+                break;
+            case "Math.max":
+                result = Math.max(a, b);
+                break;
+            case "Math.abs":
+                result = (short) Math.abs(a);
+                break;
+            case "Math.sqrt":
+                result = (int) Math.sqrt(a);
+                break;
+            case "Memory.alloc":
+            case "Array.new":
+                result = alloc(a);
+                break;
+            case "Memory.peek":
+                result = ram[check(a)];
+                break;
+            case "Memory.poke":
+                ram[check(a)] = b;
+                break;
+            case "String.new": // [capacidade, tamanho, caracteres...]
+                result = alloc(a + 2);
+                ram[result] = a;
+                ram[result + 1] = 0;
+                break;
+            case "String.length":
+                result = ram[check(a) + 1];
+                break;
+            case "String.charAt":
+                result = ram[check(a + 2 + b)];
+                break;
+            case "String.appendChar":
+                if (ram[a + 1] >= ram[a]) {
+                    throw new Error("String is full");
+                }
+                ram[check(a + 2 + ram[a + 1]++)] = b;
+                result = a;
+                break;
+            case "Output.printString":
+                for (int i = 0; i < ram[a + 1]; i++) {
+                    trace.append((char) ram[a + 2 + i]);
+                }
+                break;
+            case "Output.printInt":
+                trace.append(a);
+                break;
+            case "Output.printChar":
+                trace.append((char) a);
+                break;
+            case "Output.println":
+                trace.append('\n');
+                break;
+            case "Keyboard.keyPressed":
+                result = inputPosition < input.length ? input[inputPosition++] : 0;
+                break;
+            case "Keyboard.readChar":
+            case "Keyboard.readInt":
+                if (inputPosition == input.length) {
+                    throw new Error("No more input");
+                }
+                result = input[inputPosition++];
+                break;
+            case "Sys.halt":
+                halted = true;
+                break;
+            case "Memory.deAlloc":
+            case "Array.dispose":
+            case "String.dispose":
+            case "Sys.wait":
+                break;
+            default: // Screen, Output.moveCursor e Sys.error: so registra
+                trace.append(BUILTINS[builtin]).append('(');
+                for (int i = 0; i < nArgs; i++) {
+                    trace.append(i > 0 ? "," : "").append(ram[base + i]);
+                }
+                trace.append(")\n");
+                break;
+        }
+        ram[SP] = base;
+        push(result);
+    }
+
+    private int alloc(int size) {
+        if (size < 0 || heap + size > SCREEN) {
+            throw new Error("Heap overflow");
+        }
+        int block = heap;
+        heap += size;
+        return block;
+    }
+
+}
@@ -0,0 +1,161 @@
+package br.ufma.ecp;
+
+import br.ufma.ecp.VMCode.Opcode;
+import br.ufma.ecp.VMCommandSink.Command;
+import br.ufma.ecp.VMCommandSink.Segment;
+
+// Otimizacao peephole sobre o VMCode. As instrucoes sao copiadas uma a uma
+// para a saida e, a cada uma, o final da saida e comparado com os padroes
+// abaixo; uma troca reemite as instrucoes novas pelo mesmo caminho, entao
+// uma simplificacao pode habilitar a seguinte.
+//
+//   push S i; pop S i                     ->  (nada)
+//   not; not  |  neg; neg                 ->  (nada)
+//   goto L; label L                       ->  label L
+//   goto L; x  (x nao e label/function)   ->  goto L          (x inalcancavel)
+//   push constant 0; if-goto L            ->  (nada)
+//   push constant k; if-goto L  (k != 0)  ->  goto L
+//   push constant 0; not; if-goto L       ->  goto L
+//   b; if-goto T; goto F; label T         ->  b; not; if-goto F; label T
+//   push S i; pop temp 0; pop pointer 1; push temp 0; pop that 0
+//                                         ->  pop pointer 1; push S i; pop that 0
+//
+// No ultimo, b e uma instrucao que deixa um booleano (0 ou -1) na pilha: uma
+// comparacao, push constant 0 ou um not de booleano. Com outro valor o not
+// mudaria o desvio (~5 tambem e verdadeiro). No array, S i nao pode ser
+// that nem pointer 1, que mudam com o pop pointer 1.
+public class VMPeephole {
+
+    public static VMCode optimize(VMCode code) {
+        var out = new VMCode(code.names());
+        for (int i = 0; i < code.size(); i++) {
+            emit(out, code.opcode(i), code.arg(i), code.operand(i));
+        }
+        return out;
+    }
+
+    private static void emit(VMCode out, Opcode opcode, int arg, int operand) {
+        out.add(opcode, arg, operand);
+        reduce(out);
+    }
+
+    private static void reduce(VMCode out) {
+        int last = out.size() - 1;
+        int prev = last - 1;
+        if (prev < 0) {
+            return;
+        }
+
+        if (is(out, prev, Opcode.PUSH) && is(out, last, Opcode.POP)
+                && out.arg(prev) == out.arg(last) && out.operand(prev) == out.operand(last)) {
+            out.truncate(prev);
+            return;
+        }
+
+        if (is(out, prev, Opcode.ARITHMETIC) && is(out, last, Opcode.ARITHMETIC) && out.arg(prev) == out.arg(last)
+                && (out.command(last) == Command.NOT || out.command(last) == Command.NEG)) {
+            out.truncate(prev);
+            return;
+        }
+
+        if (is(out, prev, Opcode.GOTO)) {
+            if (is(out, last, Opcode.LABEL) && out.arg(prev) == out.arg(last)) {
+                int label = out.arg(last);
+                out.truncate(prev);
+                emit(out, Opcode.LABEL, label, 0);
+                return;
+            }
+            if (!is(out, last, Opcode.LABEL) && !is(out, last, Opcode.FUNCTION)) {
+                out.truncate(last);
+                return;
+            }
+        }
+
+        if (is(out, last, Opcode.IF_GOTO)) {
+            int label = out.arg(last);
+            if (isConstant(out, prev)) {
+                boolean taken = out.operand(prev) != 0;
+                out.truncate(prev);
+                if (taken) {
+                    emit(out, Opcode.GOTO, label, 0);
+                }
+                return;
+            }
+            if (prev > 0 && isNot(out, prev) && isConstant(out, prev - 1) && out.operand(prev - 1) == 0) {
+                out.truncate(prev - 1);
+                emit(out, Opcode.GOTO, label, 0);
+                return;
+            }
+        }
+
+        // atribuicao a elemento de array com valor simples: o valor nao
+        // precisa passar por temp 0, que o Parser so usa como rascunho
+        int value = last - 4;
+        if (value >= 0 && is(out, last, Opcode.POP) && out.segment(last) == Segment.THAT && out.operand(last) == 0
+                && isTemp0(out, last - 1, Opcode.PUSH) && isPointer1(out, last - 2)
+                && isTemp0(out, last - 3, Opcode.POP) && is(out, value, Opcode.PUSH)
+                && out.segment(value) != Segment.THAT
+                && !(out.segment(value) == Segment.POINTER && out.operand(value) == 1)) {
+            int segment = out.arg(value);
+            int index = out.operand(value);
+            out.truncate(value);
+            emit(out, Opcode.POP, Segment.POINTER.ordinal(), 1);
+            emit(out, Opcode.PUSH, segment, index);
+            emit(out, Opcode.POP, Segment.THAT.ordinal(), 0);
+            return;
+        }
+
+        int first = last - 3;
+        if (first >= 0 && is(out, last, Opcode.LABEL) && is(out, prev, Opcode.GOTO)
+                && is(out, last - 2, Opcode.IF_GOTO) && out.arg(last - 2) == out.arg(last)
+                && isBoolean(out, first)) {
+            int labelTrue = out.arg(last);
+            int labelFalse = out.arg(prev);
+            out.truncate(first + 1);
+            emit(out, Opcode.ARITHMETIC, Command.NOT.ordinal(), 0);
+            emit(out, Opcode.IF_GOTO, labelFalse, 0);
+            emit(out, Opcode.LABEL, labelTrue, 0);
+        }
+    }
+
+    private static boolean is(VMCode out, int index, Opcode opcode) {
+        return out.opcode(index) == opcode;
+    }
+
+    private static boolean isConstant(VMCode out, int index) {
+        return is(out, index, Opcode.PUSH) && out.segment(index) == Segment.CONST;
+    }
+
+    private static boolean isTemp0(VMCode out, int index, Opcode opcode) {
+        return is(out, index, opcode) && out.segment(index) == Segment.TEMP && out.operand(index) == 0;
+    }
+
+    private static boolean isPointer1(VMCode out, int index) {
+        return is(out, index, Opcode.POP) && out.segment(index) == Segment.POINTER && out.operand(index) == 1;
+    }
+
+    private static boolean isNot(VMCode out, int index) {
+        return is(out, index, Opcode.ARITHMETIC) && out.command(index) == Command.NOT;
+    }
+
+    // a instrucao deixa 0 ou -1 no topo da pilha
+    static boolean isBoolean(VMCode out, int index) {
+        if (isConstant(out, index)) {
+            return out.operand(index) == 0;
+        }
+        if (!is(out, index, Opcode.ARITHMETIC)) {
+            return false;
+        }
+        switch (out.command(index)) {
+            case EQ:
+            case GT:
+            case LT:
+                return true;
+            case NOT:
+                return index > 0 && isBoolean(out, index - 1);
+            default:
+                return false;
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+package br.ufma.ecp;
+
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import br.ufma.ecp.VMCode.Opcode;
+
+// Remocao de funcoes inalcancaveis no programa inteiro. O grafo de chamadas
+// sai dos call de todas as classes compiladas: no Jack o alvo de toda
+// chamada, inclusive de metodos e construtores, e conhecido na compilacao.
+// A busca comeca nas raizes (Sys.init, que o bootstrap chama, e Main.main) e
+// toda funcao que ela nao alcanca e removida, inclusive as das classes do
+// sistema operacional que vierem compiladas junto. Chamadas a funcoes que
+// nao estao nas unidades (o SO nativo) so sao ignoradas. Uma funcao definida
+// duas vezes ou codigo antes do primeiro function sao erros, nao descartes.
+public class VMTreeShaker {
+
+    static final String[] ROOTS = {"Sys.init", "Main.main"};
+
+    public static record Result(VMCode[] units, List<String> removed,
+            int instructionsBefore, int instructionsAfter, int bytesBefore, int bytesAfter) {
+
+        // relatorio do que foi economizado, uma linha por funcao removida
+        public String report() {
+            var sb = new StringBuilder();
+            sb.append("tree shaking: ").append(removed.size()).append(" functions removed, ")
+                    .append(instructionsBefore).append(" -> ").append(instructionsAfter).append(" instructions, ")
+                    .append(bytesBefore).append(" -> ").append(bytesAfter).append(" bytes of VM code\n");
+            for (String name : removed) {
+                sb.append("  ").append(name).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+
+    // a funcao que comeca na instrucao from de units[unit] e vai ate to
+    private static record Function(int unit, int from, int to) {
+    }
+
+    public static Result shake(VMCode... units) {
+        Map<String, Function> functions = new HashMap<>();
+        List<String> order = new ArrayList<>();
+        for (int u = 0; u < units.length; u++) {
+            var unit = units[u];
+            if (unit.size() > 0 && unit.opcode(0) != Opcode.FUNCTION) {
+                throw new Error("Unit " + u + " has code before its first function");
+            }
+            int from = 0;
+            for (int i = 1; i <= unit.size(); i++) {
+                if (i == unit.size() || unit.opcode(i) == Opcode.FUNCTION) {
+                    var name = unit.name(from);
+                    if (functions.putIfAbsent(name, new Function(u, from, i)) != null) {
+                        throw new Error("Function " + name + " defined more than once");
+                    }
+                    order.add(name);
+                    from = i;
+                }
+            }
+        }
+
+        Set<String> reached = new HashSet<>();
+        var pending = new ArrayDeque<String>();
+        for (String root : ROOTS) {
+            if (functions.containsKey(root) && reached.add(root)) {
+                pending.add(root);
+            }
+        }
+        while (!pending.isEmpty()) {
+            var function = functions.get(pending.poll());
+            var unit = units[function.unit()];
+            for (int i = function.from(); i < function.to(); i++) {
+                if (unit.opcode(i) == Opcode.CALL) {
+                    var callee = unit.name(i);
+                    if (functions.containsKey(callee) && reached.add(callee)) {
+                        pending.add(callee);
+                    }
+                }
+            }
+        }
+
+        var shaken = new VMCode[units.length];
+        for (int u = 0; u < units.length; u++) {
+            shaken[u] = new VMCode(units[u].names());
+        }
+        List<String> removed = new ArrayList<>();
+        for (String name : order) {
+            var function = functions.get(name);
+            if (!reached.contains(name)) {
+                removed.add(name);
+                continue;
+            }
+            var unit = units[function.unit()];
+            for (int i = function.from(); i < function.to(); i++) {
+                shaken[function.unit()].add(unit.opcode(i), unit.arg(i), unit.operand(i));
+            }
+        }
+
+        return new Result(shaken, removed, instructions(units), instructions(shaken), bytes(units), bytes(shaken));
+    }
+
+    private static int instructions(VMCode[] units) {
+        int size = 0;
+        for (VMCode unit : units) {
+            size += unit.size();
+        }
+        return size;
+    }
+
+    // tamanho do .vm em bytes (nomes em UTF-8), contado enquanto o texto e
+    // gerado: nada e guardado alem do buffer do VMWriter
+    private static int bytes(VMCode[] units) {
+        var counter = new Counter();
+        for (VMCode unit : units) {
+            var writer = new VMWriter(counter);
+            unit.replay(writer);
+            writer.flush();
+        }
+        return (int) counter.count;
+    }
+
+    private static class Counter extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+}
@@ -1,76 +1,227 @@
 package br.ufma.ecp;
 
-public class VMWriter {
-    private StringBuilder vmOutput = new StringBuilder();
-
-    enum Segment {
-        CONST("constant"),
-        ARG("argument"),
-        LOCAL("local"),
-        STATIC("static"),
-        THIS("this"),
-        THAT("that"),
-        POINTER("pointer"),
-        TEMP("temp");
-
-        private Segment(String value) {
-            this.value = value;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Emite o codigo VM direto em bytes: os comandos e segmentos ja vem
+// codificados e os numeros sao convertidos a mao, sem String.format. Os nomes
+// sao escritos em UTF-8 (o Scanner aceita letras fora do ASCII). O buffer
+// cresce conforme o necessario ou, com um OutputStream, e esvaziado nele.
+public class VMWriter implements VMCommandSink {
+    private byte[] buffer = new byte[8192];
+    private int count;
+    private OutputStream out;
+
+    // "push segmento ", "pop segmento " e "comando\n", por ordinal
+    private static final byte[][] PUSH = new byte[Segment.values().length][];
+    private static final byte[][] POP = new byte[Segment.values().length][];
+    private static final byte[][] ARITHMETIC = new byte[Command.values().length][];
+
+    static {
+        for (Segment segment : Segment.values()) {
+            PUSH[segment.ordinal()] = ascii("push " + segment.value + " ");
+            POP[segment.ordinal()] = ascii("pop " + segment.value + " ");
         }
+        for (Command command : Command.values()) {
+            ARITHMETIC[command.ordinal()] = ascii(command.value + "\n");
+        }
+    }
+
+    private static final byte[] LABEL = ascii("label ");
+    private static final byte[] GOTO = ascii("goto ");
+    private static final byte[] IF_GOTO = ascii("if-goto ");
+    private static final byte[] CALL = ascii("call ");
+    private static final byte[] FUNCTION = ascii("function ");
+    private static final byte[] RETURN = ascii("return\n");
+
+    public VMWriter() {
+    }
+
+    // escreve no stream sempre que o buffer enche; chame flush() no fim
+    public VMWriter(OutputStream out) {
+        this.out = out;
+    }
 
-        public String value;
-    };
-
-    enum Command {
-        ADD,
-        SUB,
-        NEG,
-        EQ,
-        GT,
-        LT,
-        AND,
-        OR,
-        NOT
-    };
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
 
+    // o codigo inteiro so fica no buffer quando nao ha stream; com ele, parte
+    // ja foi escrita e devolver o resto seria devolver codigo truncado
     public String vmOutput() {
-        return vmOutput.toString();
+        checkBuffered();
+        return new String(buffer, 0, count, StandardCharsets.UTF_8);
+    }
+
+    public String toString() {
+        return vmOutput();
+    }
+
+    public void writeTo(OutputStream stream) throws IOException {
+        checkBuffered();
+        stream.write(buffer, 0, count);
+    }
+
+    private void checkBuffered() {
+        if (out != null) {
+            throw new IllegalStateException("VM code was streamed to the OutputStream; call flush() instead");
+        }
+    }
+
+    public void flush() {
+        if (out != null) {
+            drain();
+            try {
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    public void writePush(Segment segment, int index) {
+        var push = PUSH[segment.ordinal()];
+        ensure(push.length + 12);
+        put(push);
+        putInt(index);
+        buffer[count++] = '\n';
+    }
+
+    public void writePop(Segment segment, int index) {
+        var pop = POP[segment.ordinal()];
+        ensure(pop.length + 12);
+        put(pop);
+        putInt(index);
+        buffer[count++] = '\n';
+    }
+
+    public void writeArithmetic(Command command) {
+        var line = ARITHMETIC[command.ordinal()];
+        ensure(line.length);
+        put(line);
+    }
+
+    public void writeLabel(String label) {
+        writeJump(LABEL, label, -1);
+    }
+
+    // rotulo gerado pelo parser: prefixo seguido do numero
+    public void writeLabel(String prefix, int n) {
+        writeJump(LABEL, prefix, n);
+    }
+
+    public void writeGoto(String label) {
+        writeJump(GOTO, label, -1);
     }
 
-    void writePush(Segment segment, int index) {
-        vmOutput.append(String.format("push %s %d\n", segment.value, index));
+    public void writeGoto(String prefix, int n) {
+        writeJump(GOTO, prefix, n);
     }
 
-    void writePop(Segment segment, int index) {
+    public void writeIf(String label) {
+        writeJump(IF_GOTO, label, -1);
+    }
 
-        vmOutput.append(String.format("pop %s %d\n", segment.value, index));
+    public void writeIf(String prefix, int n) {
+        writeJump(IF_GOTO, prefix, n);
     }
 
-    void writeArithmetic(Command command) {
-        vmOutput.append(String.format("%s\n", command.name().toLowerCase()));
+    public void writeCall(String name, int nArgs) {
+        writeNamed(CALL, name, nArgs);
     }
 
-    void writeLabel(String label) {
-        vmOutput.append(String.format("label %s\n", label));
+    public void writeFunction(String name, int nLocals) {
+        writeNamed(FUNCTION, name, nLocals);
     }
 
-    void writeGoto(String label) {
-        vmOutput.append(String.format("goto %s\n", label));
+    public void writeReturn() {
+        ensure(RETURN.length);
+        put(RETURN);
     }
 
-    void writeIf(String label) {
-        vmOutput.append(String.format("if-goto %s\n", label));
+    // n < 0: rotulo sem numero
+    private void writeJump(byte[] command, String label, int n) {
+        ensure(command.length + 3 * label.length() + 12);
+        put(command);
+        putName(label);
+        if (n >= 0) {
+            putInt(n);
+        }
+        buffer[count++] = '\n';
     }
 
-    void writeCall(String name, int nArgs) {
-        vmOutput.append(String.format("call %s %d\n", name, nArgs));
+    private void writeNamed(byte[] command, String name, int n) {
+        ensure(command.length + 3 * name.length() + 13);
+        put(command);
+        putName(name);
+        buffer[count++] = ' ';
+        putInt(n);
+        buffer[count++] = '\n';
     }
 
-    void writeFunction(String name, int nLocals) {
-        vmOutput.append(String.format("function %s %d\n", name, nLocals));
+    private void ensure(int length) {
+        if (count + length <= buffer.length) {
+            return;
+        }
+        if (out != null) {
+            drain();
+        }
+        if (count + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + length));
+        }
     }
 
-    void writeReturn() {
-        vmOutput.append(String.format("return\n"));
+    private void drain() {
+        try {
+            out.write(buffer, 0, count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        count = 0;
+    }
+
+    private void put(byte[] bytes) {
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    // nomes e rotulos quase sempre sao ASCII e vao byte a byte; no primeiro
+    // caractere fora dele o resto do nome e codificado em UTF-8 (ate 3 bytes
+    // por char, o que o ensure ja reservou)
+    private void putName(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                put(s.substring(i).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            buffer[count++] = (byte) c;
+        }
+    }
+
+    // inteiro em decimal, escrito de tras para frente (cabe em 11 bytes)
+    private void putInt(int value) {
+        if (value < 0) {
+            if (value == Integer.MIN_VALUE) {
+                put(ascii(Integer.toString(value)));
+                return;
+            }
+            buffer[count++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (int v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int end = count + digits;
+        for (int i = end - 1; i >= count; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        count = end;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,46 @@
+package br.ufma.ecp;
+
+import java.io.StringWriter;
+
+import br.ufma.ecp.token.TokenType;
+
+// Destino da arvore de parse em XML gerada pelo Parser
+public interface XmlSink {
+
+    // modo so compilacao: nao formata nada nem monta o valor dos tokens
+    XmlSink NONE = new XmlSink() {
+        public void nonTerminal(String name) {
+        }
+
+        public void terminal(TokenType type, String value) {
+        }
+
+        public String toString() {
+            return "";
+        }
+    };
+
+    void nonTerminal(String name);
+
+    void terminal(TokenType type, String value);
+
+    // acumula o XML em memoria; e o sink padrao do Parser
+    class Buffer extends XmlWriter {
+        private final StringWriter output;
+
+        public Buffer() {
+            this(new StringWriter());
+        }
+
+        private Buffer(StringWriter output) {
+            super(output);
+            this.output = output;
+        }
+
+        public String toString() {
+            flush();
+            return output.toString();
+        }
+    }
+
+}
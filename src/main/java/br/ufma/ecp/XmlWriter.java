@@ -0,0 +1,151 @@
+package br.ufma.ecp;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import br.ufma.ecp.token.TokenType;
+
+// Escreve a arvore de parse aos poucos num Writer, passando por um buffer
+// de tamanho fixo; o documento nunca fica inteiro em memoria
+public class XmlWriter implements XmlSink, Flushable, Closeable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final Writer out;
+    private final char[] buffer;
+    private int count;
+
+    public XmlWriter(Writer out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    public XmlWriter(Writer out, int bufferSize) {
+        this.out = out;
+        buffer = new char[Math.max(16, bufferSize)];
+    }
+
+    public XmlWriter(OutputStream out) {
+        this(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    public void nonTerminal(String name) {
+        write('<');
+        write(name);
+        write(">\r\n");
+    }
+
+    public void terminal(TokenType type, String value) {
+        var tag = tag(type);
+        write('<');
+        write(tag);
+        write("> ");
+        if (type == TokenType.STRING) {
+            write(value);
+        } else {
+            escape(value);
+        }
+        write(" </");
+        write(tag);
+        write(">\r\n");
+    }
+
+    // mesmos nomes do toString() dos tokens
+    private static String tag(TokenType type) {
+        switch (type) {
+            case IDENT:
+                return "identifier";
+            case INTEGER:
+                return "integerConstant";
+            case STRING:
+                return "string";
+            default:
+                return TokenType.isKeyword(type) ? "keyword" : "symbol";
+        }
+    }
+
+    // <, >, & e " viram entidades numa unica passada pelo valor. Como no
+    // formato original, o conteudo das strings sai como esta
+    private void escape(String value) {
+        int from = 0;
+        for (int i = 0; i < value.length(); i++) {
+            String entity;
+            switch (value.charAt(i)) {
+                case '<':
+                    entity = "&lt;";
+                    break;
+                case '>':
+                    entity = "&gt;";
+                    break;
+                case '&':
+                    entity = "&amp;";
+                    break;
+                case '"':
+                    entity = "&quot;";
+                    break;
+                default:
+                    continue;
+            }
+            write(value, from, i);
+            write(entity);
+            from = i + 1;
+        }
+        write(value, from, value.length());
+    }
+
+    private void write(char c) {
+        if (count == buffer.length) {
+            drain();
+        }
+        buffer[count++] = c;
+    }
+
+    private void write(String s) {
+        write(s, 0, s.length());
+    }
+
+    private void write(String s, int from, int to) {
+        while (from < to) {
+            if (count == buffer.length) {
+                drain();
+            }
+            int n = Math.min(to - from, buffer.length - count);
+            s.getChars(from, from + n, buffer, count);
+            count += n;
+            from += n;
+        }
+    }
+
+    private void drain() {
+        try {
+            out.write(buffer, 0, count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        count = 0;
+    }
+
+    public void flush() {
+        drain();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void close() {
+        flush();
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -4,6 +4,7 @@ package br.ufma.ecp.token;
 public class IdentifierToken extends Token {
 
     String lexeme;
+    int id = -1;
 
     public IdentifierToken(String lexeme, int line) {
         super(TokenType.IDENT, line);
@@ -11,6 +12,11 @@ public class IdentifierToken extends Token {
 
     }
 
+    public IdentifierToken(String lexeme, int id, int line) {
+        this(lexeme, line);
+        this.id = id;
+    }
+
     public String toString() {
         return "<identifier> " + lexeme  + " </identifier>";
     }
@@ -19,4 +25,9 @@ public class IdentifierToken extends Token {
         return lexeme;
     }
 
+    // id na tabela de identificadores do scanner que criou o token
+    public int id () {
+        return id;
+    }
+
 }
\ No newline at end of file
@@ -2,11 +2,20 @@ package br.ufma.ecp.token;
 
 public class IntegerToken extends Token{
     String lexeme;
-    public IntegerToken(String lexeme, int line) {
+    int value;
+    // o lexema e o texto do fonte (007 continua 007); o int e so para o codigo
+    public IntegerToken(String lexeme, int value, int line) {
         super(TokenType.INTEGER, line);
         this.lexeme = lexeme;
+        this.value = value;
+    }
+    public String toString() {
+        return "<integerConstant> " + lexeme  + " </integerConstant>";
     }
     public String value () {
         return lexeme;
     }
+    public int intValue () {
+        return value;
+    }
 }
@@ -9,16 +9,20 @@ public class SymbolToken extends Token {
     public String toString() {
         var valor = type.value;
 
-        // Os símbolos <, >, ", e & são impressos como &lt;  &gt;  &quot; e &amp; Para
+        // Os símbolos <, > e & são impressos como &lt;  &gt; e &amp; Para
         // não conflitar com o significado destes símbolos no XML
-        if (valor == ">") {
-            valor = "&gt;";
-        } else if (valor == "<") {
-            valor = "&lt;";
-        } else if (valor == "\"") {
-            valor = "&quot;";
-        } else if (valor == "&") {
-            valor = "&amp;";
+        switch (type) {
+            case LT:
+                valor = "&lt;";
+                break;
+            case GT:
+                valor = "&gt;";
+                break;
+            case AND:
+                valor = "&amp;";
+                break;
+            default:
+                break;
         }
 
         return "<symbol> " + valor + " </symbol>";
@@ -1,6 +1,8 @@
 package br.ufma.ecp.token;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
 
 public enum TokenType {
 
@@ -57,27 +59,113 @@ public enum TokenType {
     public String value;
 
 
+    private static final Map<String, TokenType> BY_VALUE = new HashMap<>();
+
+    // simbolos indexados pelo proprio byte (ASCII)
+    private static final TokenType[] SYMBOLS = new TokenType[128];
+
+    static {
+        for (TokenType type : values()) {
+            if (type.value == null) continue;
+            BY_VALUE.put(type.value, type);
+            if (!isKeyword(type)) {
+                SYMBOLS[type.value.charAt(0)] = type;
+            }
+        }
+    }
+
     public static TokenType fromValue(String value) {
-        return Arrays.stream(TokenType.values())
-                .filter(symbolType -> symbolType.value != null && symbolType.value.equals(value))
-                .findFirst()
-                .orElse(null);
+        return BY_VALUE.get(value);
     }
 
 
     static public boolean isSymbol (char c) {
-        String symbols = "{}()[].,;+-*/&|<>=~";
-        return symbols.indexOf(c) > -1;
+        return symbol(c) != null;
+    }
+
+    static public TokenType symbol (int c) {
+        return c >= 0 && c < SYMBOLS.length ? SYMBOLS[c] : null;
     }
 
     static public boolean isOperator(TokenType type) {
         return type.value != null && "+-*/<>=~&|".contains(type.value);
     }
 
+    static public boolean isKeyword(TokenType type) {
+        return type.ordinal() >= WHILE.ordinal() && type.ordinal() <= RETURN.ordinal();
+    }
+
     static public TokenType keyword (String value) {
-        return fromValue(value);
+        var type = fromValue(value);
+        return type != null && isKeyword(type) ? type : null;
+    }
+
+    // reconhece uma palavra-chave direto nos bytes do fonte, sem criar String:
+    // o tamanho e o primeiro byte ja deixam no maximo dois candidatos
+    static public TokenType keyword (byte[] input, int start, int length) {
+        return keyword(ByteBuffer.wrap(input), start, length);
     }
 
+    static public TokenType keyword (ByteBuffer input, int start, int length) {
+        switch (length) {
+            case 2:
+                switch (input.get(start)) {
+                    case 'd': return match(input, start, DO);
+                    case 'i': return match(input, start, IF);
+                }
+                break;
+            case 3:
+                switch (input.get(start)) {
+                    case 'v': return match(input, start, VAR);
+                    case 'i': return match(input, start, INT);
+                    case 'l': return match(input, start, LET);
+                }
+                break;
+            case 4:
+                switch (input.get(start)) {
+                    case 'c': return match(input, start, CHAR);
+                    case 'v': return match(input, start, VOID);
+                    case 'n': return match(input, start, NULL);
+                    case 'e': return match(input, start, ELSE);
+                    case 't':
+                        return input.get(start + 1) == 'r' ? match(input, start, TRUE) : match(input, start, THIS);
+                }
+                break;
+            case 5:
+                switch (input.get(start)) {
+                    case 'w': return match(input, start, WHILE);
+                    case 'c': return match(input, start, CLASS);
+                    case 'f':
+                        return input.get(start + 1) == 'i' ? match(input, start, FIELD) : match(input, start, FALSE);
+                }
+                break;
+            case 6:
+                switch (input.get(start)) {
+                    case 's': return match(input, start, STATIC);
+                    case 'm': return match(input, start, METHOD);
+                    case 'r': return match(input, start, RETURN);
+                }
+                break;
+            case 7:
+                if (input.get(start) == 'b') return match(input, start, BOOLEAN);
+                break;
+            case 8:
+                if (input.get(start) == 'f') return match(input, start, FUNCTION);
+                break;
+            case 11:
+                if (input.get(start) == 'c') return match(input, start, CONSTRUCTOR);
+                break;
+        }
+        return null;
+    }
 
+    // o tamanho ja foi conferido pelo switch
+    private static TokenType match (ByteBuffer input, int start, TokenType type) {
+        var value = type.value;
+        for (int i = 1; i < value.length(); i++) {
+            if (input.get(start + i) != value.charAt(i)) return null;
+        }
+        return type;
+    }
 
-}
\ No newline at end of file
+}
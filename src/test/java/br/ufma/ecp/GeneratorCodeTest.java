@@ -3,11 +3,17 @@ package br.ufma.ecp;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
 import java.nio.charset.StandardCharsets;
 
 import org.junit.Test;
 
+import com.sun.management.ThreadMXBean;
+
 public class GeneratorCodeTest {
 
 
@@ -831,4 +837,79 @@ public class GeneratorCodeTest {
     }
 
 
-}
\ No newline at end of file
+
+    @Test
+    public void tokenBufferTest () throws IOException {
+        var input = TestSupport.fromFile("Square/Square.jack").getBytes(StandardCharsets.UTF_8);
+
+        var parser = new Parser(input);
+        parser.parse();
+        var bufferParser = new Parser(TokenBuffer.lex(input));
+        bufferParser.parse();
+
+        assertEquals(parser.VMOutput(), bufferParser.VMOutput());
+        assertEquals(parser.XMLOutput(), bufferParser.XMLOutput());
+    }
+
+    @Test
+    public void compileOnlyTest () throws IOException {
+        var input = TestSupport.fromFile("Square/SquareGame.jack").getBytes(StandardCharsets.UTF_8);
+
+        var parser = new Parser(input);
+        parser.parse();
+        var compileOnly = new Parser(input, XmlSink.NONE);
+        compileOnly.parse();
+        var bufferCompileOnly = new Parser(TokenBuffer.lex(input), XmlSink.NONE);
+        bufferCompileOnly.parse();
+
+        assertEquals(parser.VMOutput(), compileOnly.VMOutput());
+        assertEquals(parser.VMOutput(), bufferCompileOnly.VMOutput());
+        assertEquals("", compileOnly.XMLOutput());
+    }
+
+    // classe grande gerada, com os comandos e expressoes mais comuns
+    // um metodo com o mesmo bloco de comandos repetido: as declaracoes nao
+    // mudam com o numero de blocos, so os tokens e os comandos
+    static byte[] repeatedStatements(int blocks) {
+        var source = new StringBuilder("class Big {\n    field int x, y;\n    static Array data;\n")
+                .append("    method int m(int a, int b) {\n        var int i, sum;\n");
+        for (int k = 0; k < blocks; k++) {
+            source.append("        let i = 0;\n")
+                    .append("        while (i < a) {\n")
+                    .append("            let sum = sum + (i * b) - (x / 2);\n")
+                    .append("            if (~(sum > 100) & (i = 3)) {\n")
+                    .append("                let data[i] = -sum;\n")
+                    .append("            } else {\n")
+                    .append("                do Output.printInt(data[i] + y);\n")
+                    .append("            }\n")
+                    .append("            let i = i + 1;\n")
+                    .append("        }\n")
+                    .append("        do m(sum, true);\n");
+        }
+        return source.append("        return sum;\n    }\n}\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // bytes alocados por um parse (ja aquecido) dos tokens, so gerando VM
+    // num VMWriter com buffer fixo
+    static long allocatedParsing(TokenBuffer tokens) {
+        var threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (int round = 0; round < 3; round++) { // aquecimento
+            new Parser(tokens, XmlSink.NONE, new VMWriter(OutputStream.nullOutputStream())).parse();
+        }
+        long before = threads.getCurrentThreadAllocatedBytes();
+        new Parser(tokens, XmlSink.NONE, new VMWriter(OutputStream.nullOutputStream())).parse();
+        return threads.getCurrentThreadAllocatedBytes() - before;
+    }
+
+    @Test
+    public void allocationBudgetTest () {
+        // o que sobra e fixo: o parser, a tabela de simbolos, o buffer do
+        // VMWriter e um Symbol por declaracao. Dobrar o numero de comandos
+        // (mais de 150 mil tokens a mais) nao pode alocar quase nada;
+        // antes eram mais de 80 KB por KB de fonte
+        long small = allocatedParsing(TokenBuffer.lex(repeatedStatements(1000)));
+        long large = allocatedParsing(TokenBuffer.lex(repeatedStatements(2000)));
+        assertTrue("allocated " + (large - small) + " bytes for 1000 more blocks", large - small < 1024);
+        assertTrue("allocated " + small + " bytes in total", small < 16 * 1024);
+    }
+}
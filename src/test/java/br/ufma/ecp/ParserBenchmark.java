@@ -0,0 +1,93 @@
+package br.ufma.ecp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+// Medicoes de vazao do Parser. Como o ScannerBenchmark, nao entra no
+// "mvn test" padrao; rode com: mvn test -Dtest=ParserBenchmark
+public class ParserBenchmark extends TestSupport {
+
+    private static final int ROUNDS = 200;
+
+    static byte[][] squareSources() throws IOException {
+        return new byte[][] {
+                fromFile("Square/Main.jack").getBytes(StandardCharsets.UTF_8),
+                fromFile("Square/Square.jack").getBytes(StandardCharsets.UTF_8),
+                fromFile("Square/SquareGame.jack").getBytes(StandardCharsets.UTF_8),
+        };
+    }
+
+    @Test
+    public void parseWithXmlVsCompileOnly() throws IOException {
+        var sources = squareSources();
+        long bytes = 0;
+        for (byte[] source : sources) {
+            bytes += source.length;
+        }
+
+        long xml = Long.MAX_VALUE;
+        long compileOnly = Long.MAX_VALUE;
+        long bufferXml = Long.MAX_VALUE;
+        long bufferCompileOnly = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long begin = System.nanoTime();
+            for (byte[] source : sources) {
+                new Parser(source).parse();
+            }
+            xml = Math.min(xml, System.nanoTime() - begin);
+
+            begin = System.nanoTime();
+            for (byte[] source : sources) {
+                new Parser(source, XmlSink.NONE).parse();
+            }
+            compileOnly = Math.min(compileOnly, System.nanoTime() - begin);
+
+            begin = System.nanoTime();
+            for (byte[] source : sources) {
+                new Parser(TokenBuffer.lex(source)).parse();
+            }
+            bufferXml = Math.min(bufferXml, System.nanoTime() - begin);
+
+            begin = System.nanoTime();
+            for (byte[] source : sources) {
+                new Parser(TokenBuffer.lex(source), XmlSink.NONE).parse();
+            }
+            bufferCompileOnly = Math.min(bufferCompileOnly, System.nanoTime() - begin);
+        }
+        ScannerBenchmark.report("Parser, XML", bytes, xml);
+        ScannerBenchmark.report("Parser, compile only", bytes, compileOnly);
+        ScannerBenchmark.report("Parser (buffer), XML", bytes, bufferXml);
+        ScannerBenchmark.report("Parser (buffer), only", bytes, bufferCompileOnly);
+    }
+
+    @Test
+    public void vmWriterVsFormat() {
+        int instructions = 1_000_000;
+        long format = Long.MAX_VALUE;
+        long bytes = Long.MAX_VALUE;
+        long size = 0;
+        for (int round = 0; round < 10; round++) {
+            long begin = System.nanoTime();
+            var text = new StringBuilder();
+            for (int i = 0; i < instructions; i++) {
+                text.append(String.format("push %s %d\n", VMCommandSink.Segment.LOCAL.value, i & 1023));
+                text.append(String.format("%s\n", VMCommandSink.Command.ADD.name().toLowerCase()));
+            }
+            format = Math.min(format, System.nanoTime() - begin);
+
+            begin = System.nanoTime();
+            var writer = new VMWriter();
+            for (int i = 0; i < instructions; i++) {
+                writer.writePush(VMCommandSink.Segment.LOCAL, i & 1023);
+                writer.writeArithmetic(VMCommandSink.Command.ADD);
+            }
+            bytes = Math.min(bytes, System.nanoTime() - begin);
+            size = text.length();
+        }
+        ScannerBenchmark.report("VM text, String.format", size, format);
+        ScannerBenchmark.report("VM text, VMWriter", size, bytes);
+    }
+
+}
@@ -720,4 +720,32 @@ label WHILE_END0
         assertEquals(expected, actual);
     }
 
+
+    @Test
+    public void testXmlWriterMatchesBuffer () throws IOException {
+        var input = fromFile("Square/SquareGame.jack").getBytes(StandardCharsets.UTF_8);
+        var parser = new Parser(input);
+        parser.parse();
+
+        // buffer minimo, para forcar varias escritas no Writer
+        var output = new java.io.StringWriter();
+        try (var xml = new XmlWriter(output, 16)) {
+            new Parser(input, xml).parse();
+        }
+
+        assertEquals(parser.XMLOutput(), output.toString());
+    }
+
+    @Test
+    public void testXmlEscaping () {
+        var input = "1 < 2 & \"x > y\"";
+        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        parser.parseExpression();
+
+        var result = parser.XMLOutput();
+        assertEquals(true, result.contains("<symbol> &lt; </symbol>"));
+        assertEquals(true, result.contains("<symbol> &amp; </symbol>"));
+        // o formato original nao escapa o conteudo das strings
+        assertEquals(true, result.contains("<string> x > y </string>"));
+    }
 }
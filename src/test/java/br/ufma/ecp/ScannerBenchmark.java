@@ -0,0 +1,291 @@
+package br.ufma.ecp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import br.ufma.ecp.token.TokenType;
+
+// Medicoes de vazao do Scanner. Nao entra no "mvn test" padrao (o nome nao
+// termina em Test); rode com: mvn test -Dtest=ScannerBenchmark
+public class ScannerBenchmark extends TestSupport {
+
+    private static final int COPIES = 2000;
+    private static final int ROUNDS = 10;
+
+    // os fontes do Square concatenados ate dar alguns megabytes
+    static byte[] scaledSquare(int copies) throws IOException {
+        var source = fromFile("Square/Main.jack")
+                + fromFile("Square/Square.jack")
+                + fromFile("Square/SquareGame.jack");
+        return source.repeat(copies).getBytes(StandardCharsets.UTF_8);
+    }
+
+    static void report(String name, long bytes, long nanos) {
+        double mbPerSecond = (bytes / (1024.0 * 1024.0)) / (nanos / 1e9);
+        System.out.printf("%-24s %10.1f MB/s%n", name, mbPerSecond);
+    }
+
+    // antes e depois no mesmo processo: CharacterScanner e o laco do Scanner
+    // de antes da tabela de classes, com Character.isLetter/isDigit por byte
+    @Test
+    public void scan() throws IOException {
+        var input = scaledSquare(COPIES);
+        assertEquals(new CharacterScanner(input).drain(), drain(new Scanner(input)));
+        long reference = Long.MAX_VALUE;
+        long table = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long begin = System.nanoTime();
+            new CharacterScanner(input).drain();
+            reference = Math.min(reference, System.nanoTime() - begin);
+
+            begin = System.nanoTime();
+            drain(new Scanner(input));
+            table = Math.min(table, System.nanoTime() - begin);
+        }
+        report("Scanner.scan (Character)", input.length, reference);
+        report("Scanner.scan", input.length, table);
+    }
+
+    @Test
+    public void scanMapped() throws IOException {
+        var file = Files.createTempFile("square", ".jack");
+        try {
+            Files.write(file, scaledSquare(COPIES));
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                long begin = System.nanoTime();
+                drain(Scanner.fromFile(file));
+                best = Math.min(best, System.nanoTime() - begin);
+            }
+            report("Scanner.scan (mapped)", Files.size(file), best);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    // fontes cheios de blocos de documentacao gerados, como os nossos
+    static byte[] commentedSquare(int copies) throws IOException {
+        var doc = "    /**\n" + "     * Generated documentation line for the next member.\n".repeat(12) + "     */\n";
+        var source = new StringBuilder();
+        for (String line : (fromFile("Square/Square.jack") + fromFile("Square/SquareGame.jack")).split("\n")) {
+            if (line.contains("method") || line.contains("function") || line.contains("constructor")) {
+                source.append(doc);
+            }
+            source.append(line).append('\n');
+        }
+        return source.toString().repeat(copies).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void scanCommentedScalarVsSwar() throws IOException {
+        var input = commentedSquare(COPIES);
+        long scalar = Long.MAX_VALUE;
+        long swar = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long begin = System.nanoTime();
+            drain(new Scanner(input).scalar());
+            scalar = Math.min(scalar, System.nanoTime() - begin);
+
+            begin = System.nanoTime();
+            drain(new Scanner(input));
+            swar = Math.min(swar, System.nanoTime() - begin);
+        }
+        report("commented, scalar", input.length, scalar);
+        report("commented, SWAR", input.length, swar);
+    }
+
+    @Test
+    public void lexSequentialVsParallel() throws IOException {
+        var input = ByteBuffer.wrap(scaledSquare(COPIES * 10));
+        long sequential = Long.MAX_VALUE;
+        long parallel = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long begin = System.nanoTime();
+            TokenBuffer.lex(input);
+            sequential = Math.min(sequential, System.nanoTime() - begin);
+
+            begin = System.nanoTime();
+            TokenBuffer.lexParallel(input);
+            parallel = Math.min(parallel, System.nanoTime() - begin);
+        }
+        report("TokenBuffer.lex", input.limit(), sequential);
+        report("TokenBuffer.lexParallel", input.limit(), parallel);
+    }
+
+    static int drain(Scanner scanner) {
+        int count = 0;
+        while (scanner.scan() != TokenType.EOF) {
+            count++;
+        }
+        return count;
+    }
+
+    // copia do Scanner.scan anterior a tabela de classes, so para comparacao.
+    // Faz o mesmo trabalho por token que o Scanner de hoje (interna os
+    // identificadores, calcula o valor dos inteiros) para que a diferenca
+    // medida seja so a classificacao dos bytes.
+    static class CharacterScanner {
+
+        private final byte[] input;
+        private final ByteBuffer buffer;
+        private final IdentifierTable identifiers = new IdentifierTable();
+        private int current;
+        private int start;
+        private int end;
+        private int line = 1;
+        private int intValue;
+
+        CharacterScanner(byte[] input) {
+            this.input = input;
+            buffer = ByteBuffer.wrap(input);
+        }
+
+        int drain() {
+            int count = 0;
+            while (scan() != TokenType.EOF) {
+                count++;
+            }
+            return count;
+        }
+
+        TokenType scan() {
+            skipWhitespace();
+
+            start = current;
+            char ch = peek();
+
+            switch (ch) {
+                case '"':
+                    return string();
+                case '/':
+                    if (peekNext() == '/') {
+                        skipLineComments();
+                        return scan();
+                    } else if (peekNext() == '*') {
+                        skipBlockComments();
+                        return scan();
+                    } else {
+                        advance();
+                        end = current;
+                        return TokenType.SLASH;
+                    }
+                case 0:
+                    end = current;
+                    return TokenType.EOF;
+                default:
+                    if (Character.isDigit(ch)) {
+                        return number();
+                    }
+                    if (Character.isLetter(ch)) {
+                        return identifier();
+                    }
+                    if (TokenType.isSymbol(ch)) {
+                        return symbol();
+                    }
+                    throw new Error(line + ":Unexpected character: " + peek());
+            }
+        }
+
+        private void skipBlockComments() {
+            boolean endComment = false;
+            advance();
+            while (!endComment) {
+                advance();
+                char ch = peek();
+                if (ch == 0) {
+                    throw new Error(line + ":Unterminated comment");
+                }
+                if (ch == '*') {
+                    for (ch = peek(); ch == '*'; advance(), ch = peek())
+                        ;
+                    if (ch == '/') {
+                        endComment = true;
+                        advance();
+                    }
+                }
+            }
+        }
+
+        private void skipLineComments() {
+            for (char ch = peek(); ch != '\n' && ch != 0; advance(), ch = peek())
+                ;
+        }
+
+        private void skipWhitespace() {
+            char ch = peek();
+            while (ch == ' ' || ch == '\r' || ch == '\t' || ch == '\n') {
+                if (ch == '\n')
+                    line++;
+                advance();
+                ch = peek();
+            }
+        }
+
+        private boolean isAlphaNumeric(char ch) {
+            return Character.isLetter(ch) || Character.isDigit(ch);
+        }
+
+        private TokenType string() {
+            advance();
+            start = current;
+            while (peek() != '"' && peek() != 0) {
+                advance();
+            }
+            end = current;
+            advance();
+            return TokenType.STRING;
+        }
+
+        private TokenType identifier() {
+            while (isAlphaNumeric(peek())) {
+                advance();
+            }
+            end = current;
+            TokenType type = TokenType.keyword(buffer, start, end - start);
+            if (type == null) {
+                identifiers.intern(buffer, start, end - start);
+                return TokenType.IDENT;
+            }
+            return type;
+        }
+
+        private TokenType number() {
+            int value = 0;
+            while (Character.isDigit(peek())) {
+                value = value * 10 + (peek() - '0');
+                advance();
+            }
+            end = current;
+            intValue = value;
+            return TokenType.INTEGER;
+        }
+
+        private TokenType symbol() {
+            var ch = peek();
+            advance();
+            end = current;
+            return TokenType.symbol(ch);
+        }
+
+        private void advance() {
+            if (peek() != 0) {
+                current++;
+            }
+        }
+
+        private char peek() {
+            return current < input.length ? (char) input[current] : 0;
+        }
+
+        private char peekNext() {
+            return current + 1 < input.length ? (char) input[current + 1] : 0;
+        }
+    }
+
+}
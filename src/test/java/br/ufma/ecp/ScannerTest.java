@@ -1,12 +1,24 @@
 package br.ufma.ecp;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Test;
 
+import br.ufma.ecp.token.IntegerToken;
 import br.ufma.ecp.token.Token;
 import br.ufma.ecp.token.TokenType;
 
@@ -73,4 +85,327 @@ public class ScannerTest extends TestSupport {
 
     
     
+    @Test
+    public void testTokenBufferWithSquareGame() throws IOException {
+        var input = fromFile("Square/SquareGame.jack").getBytes(StandardCharsets.UTF_8);
+
+        var scanner = new Scanner(input);
+        var tokens = TokenBuffer.lex(input);
+
+        int i = 0;
+        for (Token tk = scanner.nextToken(); tk.type != TokenType.EOF; tk = scanner.nextToken(), i++) {
+            assertEquals(tk.type, tokens.type(i));
+            assertEquals(tk.line, tokens.line(i));
+            assertEquals(tk.value(), tokens.value(i));
+            assertEquals(tk.toString(), tokens.token(i).toString());
+        }
+        assertEquals(TokenType.EOF, tokens.type(i));
+        assertEquals(i + 1, tokens.size());
+    }
+
+    @Test
+    public void testKeywordLookupOnBytes() {
+        for (TokenType type : TokenType.values()) {
+            if (type.value == null) continue;
+            var bytes = (" " + type.value + " ").getBytes(StandardCharsets.UTF_8);
+            var expected = TokenType.isKeyword(type) ? type : null;
+            assertEquals(expected, TokenType.keyword(bytes, 1, type.value.length()));
+            assertEquals(expected, TokenType.keyword(type.value));
+        }
+        for (String id : new String[] {"d", "iff", "This", "thus", "fals", "constructer", "returns", "x"}) {
+            var bytes = id.getBytes(StandardCharsets.UTF_8);
+            assertEquals(null, TokenType.keyword(bytes, 0, bytes.length));
+        }
+        assertEquals(TokenType.LBRACE, TokenType.symbol('{'));
+        assertEquals(null, TokenType.symbol('a'));
+        assertEquals(null, TokenType.symbol(200));
+    }
+
+    @Test
+    public void testMappedFile() throws IOException {
+        var path = Path.of("src/test/resources/Square/Square.jack");
+        var input = fromFile("Square/Square.jack").getBytes(StandardCharsets.UTF_8);
+
+        var scanner = new Scanner(input);
+        var mapped = Scanner.fromFile(path);
+        var tokens = TokenBuffer.lex(Scanner.map(path));
+
+        int i = 0;
+        for (Token tk = scanner.nextToken(); tk.type != TokenType.EOF; tk = scanner.nextToken(), i++) {
+            assertEquals(tk.toString(), mapped.nextToken().toString());
+            assertEquals(tk.value(), tokens.value(i));
+        }
+        assertEquals(TokenType.EOF, mapped.nextToken().type);
+    }
+
+    @Test
+    public void testStreamingWithSmallBuffers() throws IOException {
+        var input = fromFile("Square/SquareGame.jack").getBytes(StandardCharsets.UTF_8);
+
+        // buffers pequenos fazem identificadores, strings e comentarios
+        // atravessarem a fronteira entre dois pedacos
+        for (int bufferSize : new int[] {32, 33, 57, 100, 4096}) {
+            var scanner = new Scanner(input);
+            var channel = Channels.newChannel(new ByteArrayInputStream(input));
+            var streaming = new Scanner(channel, bufferSize);
+
+            Token tk;
+            do {
+                tk = scanner.nextToken();
+                var other = streaming.nextToken();
+                assertEquals(tk.type, other.type);
+                assertEquals(tk.value(), other.value());
+                assertEquals(tk.line, other.line);
+            } while (tk.type != TokenType.EOF);
+        }
+    }
+
+    @Test
+    public void testStreamingLongComment() {
+        var input = ("/* " + "x".repeat(10000) + " */ let // " + "y".repeat(10000) + "\n x").getBytes(StandardCharsets.UTF_8);
+        var scanner = new Scanner(new ByteArrayInputStream(input));
+        assertEquals(TokenType.LET, scanner.nextToken().type);
+        assertEquals("x", scanner.nextToken().value());
+        assertEquals(TokenType.EOF, scanner.nextToken().type);
+    }
+
+    @Test(expected = Error.class)
+    public void testStreamingTokenTooLong() {
+        var input = ("\"" + "x".repeat(100) + "\"").getBytes(StandardCharsets.UTF_8);
+        var scanner = new Scanner(Channels.newChannel(new ByteArrayInputStream(input)), 64);
+        scanner.nextToken();
+    }
+
+    @Test
+    public void testLinesAfterComments() {
+        var input = """
+            /** comentario
+              * em bloco */
+            a // linha
+            /* outro
+            */ b
+            """.getBytes(StandardCharsets.UTF_8);
+        var scanner = new Scanner(input);
+        assertEquals(3, scanner.nextToken().line);
+        assertEquals(5, scanner.nextToken().line);
+    }
+
+    @Test
+    public void testSwarMatchesScalar() throws IOException {
+        var square = fromFile("Square/Square.jack");
+        var random = new java.util.Random(42);
+        var source = new StringBuilder();
+        for (String line : square.split("\n")) {
+            // comentarios e espacos de tamanhos variados para cair em todas
+            // as posicoes dentro de um long
+            source.append(" ".repeat(random.nextInt(20)));
+            if (random.nextInt(3) == 0) {
+                source.append("/**").append("*".repeat(random.nextInt(3)))
+                      .append(" doc\n * ".repeat(random.nextInt(4)))
+                      .append("x".repeat(random.nextInt(17))).append("**/");
+            }
+            source.append(line);
+            if (random.nextInt(4) == 0) {
+                source.append("\t// ").append("y".repeat(random.nextInt(30)));
+            }
+            source.append("\r\n");
+        }
+        var input = source.toString().getBytes(StandardCharsets.UTF_8);
+
+        var swar = new Scanner(input);
+        var scalar = new Scanner(input).scalar();
+        Token tk;
+        do {
+            tk = swar.nextToken();
+            var other = scalar.nextToken();
+            assertEquals(other.type, tk.type);
+            assertEquals(other.value(), tk.value());
+            assertEquals(other.line, tk.line);
+        } while (tk.type != TokenType.EOF);
+    }
+
+    @Test
+    public void testMillionConsecutiveComments() {
+        var input = ("// linha\n/* bloco */".repeat(500_000) + " fim").getBytes(StandardCharsets.UTF_8);
+        var scanner = new Scanner(input);
+        var tk = scanner.nextToken();
+        assertEquals("fim", tk.value());
+        assertEquals(500_001, tk.line);
+        assertEquals(TokenType.EOF, scanner.nextToken().type);
+    }
+
+    @Test
+    public void testParallelMatchesSequential() throws IOException {
+        // strings com cara de comentario e comentarios com aspas: um pedaco
+        // que comeca no meio deles tem que ser reconciliado
+        var tricky = """
+            let s = "nao /* e comentario";
+            /* nem "isto e string */
+            // "tambem nao
+            let t = "// 42";
+            /** bloco
+              * com varias
+              * linhas */
+            """;
+        var source = (fromFile("Square/SquareGame.jack") + tricky + fromFile("Square/Square.jack")).repeat(20);
+        var input = ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8));
+
+        var expected = TokenBuffer.lex(input);
+        for (int chunkSize : new int[] {7, 64, 1000, 12345}) {
+            var actual = TokenBuffer.lexParallel(input, chunkSize, ForkJoinPool.commonPool());
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.type(i), actual.type(i));
+                assertEquals(expected.start(i), actual.start(i));
+                assertEquals(expected.length(i), actual.length(i));
+                assertEquals(expected.line(i), actual.line(i));
+            }
+        }
+    }
+
+    @Test
+    public void testIdentifiersAreInterned() {
+        var input = "x Square x square Square".getBytes(StandardCharsets.UTF_8);
+        var tokens = TokenBuffer.lex(input);
+
+        assertEquals(tokens.id(0), tokens.id(2));
+        assertEquals(tokens.id(1), tokens.id(4));
+        assertNotEquals(tokens.id(1), tokens.id(3));
+        assertSame(tokens.value(0), tokens.value(2));
+        assertEquals(3, tokens.identifiers().size());
+
+        var identifiers = tokens.identifiers();
+        int qualified = identifiers.qualify(tokens.id(1), tokens.id(0));
+        assertEquals("Square.x", identifiers.name(qualified));
+        assertEquals(qualified, identifiers.qualify(tokens.id(1), tokens.id(0)));
+        assertEquals(qualified, identifiers.intern("Square.x"));
+
+        // consultar um nome desconhecido nao o interna
+        int size = identifiers.size();
+        assertEquals(-1, identifiers.find("Squares"));
+        assertEquals(tokens.id(3), identifiers.find("square"));
+        var symbols = new SymbolTable(identifiers);
+        assertNull(symbols.resolve("undeclared"));
+        assertEquals(size, identifiers.size());
+    }
+
+    @Test
+    public void testIntegerValues() {
+        var scanner = new Scanner("0 42 32767".getBytes(StandardCharsets.UTF_8));
+        assertEquals(0, ((IntegerToken) scanner.nextToken()).intValue());
+        assertEquals(42, ((IntegerToken) scanner.nextToken()).intValue());
+        assertEquals(32767, ((IntegerToken) scanner.nextToken()).intValue());
+
+        var tokens = TokenBuffer.lex("let x = 1234;".getBytes(StandardCharsets.UTF_8));
+        assertEquals(1234, tokens.intValue(3));
+
+        // value() e o toString() mostram o texto do fonte, nao o int
+        var token = (IntegerToken) new Scanner("007".getBytes(StandardCharsets.UTF_8)).nextToken();
+        assertEquals(7, token.intValue());
+        assertEquals("007", token.value());
+        assertEquals("<integerConstant> 007 </integerConstant>", token.toString());
+        tokens = TokenBuffer.lex("let x = 007;".getBytes(StandardCharsets.UTF_8));
+        assertEquals(7, tokens.intValue(3));
+        assertEquals("007", tokens.value(3));
+        assertEquals("007", tokens.token(3).value());
+    }
+
+    @Test(expected = Error.class)
+    public void testIntegerOutOfRange() {
+        new Scanner("32768".getBytes(StandardCharsets.UTF_8)).nextToken();
+    }
+
+    @Test(expected = Error.class)
+    public void testIntegerOverflow() {
+        new Scanner("99999999999999999999".getBytes(StandardCharsets.UTF_8)).nextToken();
+    }
+
+    @Test
+    public void testIncrementalEdits() throws IOException {
+        var source = fromFile("Square/SquareGame.jack");
+        var tokens = TokenBuffer.lex(source.getBytes(StandardCharsets.UTF_8));
+        var random = new java.util.Random(7);
+        String[] snippets = {"x", "1", " ", "\n", "\"", "/*", "*/", "//", "let y = 2;", "", "while"};
+
+        for (int n = 0; n < 300; n++) {
+            int offset = random.nextInt(source.length() + 1);
+            int removed = random.nextInt(Math.min(5, source.length() - offset) + 1);
+            var inserted = snippets[random.nextInt(snippets.length)];
+
+            source = source.substring(0, offset) + inserted + source.substring(offset + removed);
+            var bytes = source.getBytes(StandardCharsets.UTF_8);
+            TokenBuffer expected;
+            try {
+                expected = TokenBuffer.lex(bytes);
+            } catch (Error e) {
+                // a edicao deixou o fonte invalido; volta ao fonte valido
+                source = fromFile("Square/SquareGame.jack");
+                tokens = TokenBuffer.lex(source.getBytes(StandardCharsets.UTF_8));
+                continue;
+            }
+            tokens = tokens.edit(offset, removed, inserted.getBytes(StandardCharsets.UTF_8));
+
+            assertEquals(expected.size(), tokens.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.type(i), tokens.type(i));
+                assertEquals(expected.start(i), tokens.start(i));
+                assertEquals(expected.length(i), tokens.length(i));
+                assertEquals(expected.line(i), tokens.line(i));
+                assertEquals(expected.value(i), tokens.value(i));
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalEditRescansLittle() throws IOException {
+        var source = fromFile("Square/Square.jack").repeat(50);
+        var bytes = source.getBytes(StandardCharsets.UTF_8);
+        var tokens = TokenBuffer.lex(bytes);
+        int size = tokens.size();
+
+        int offset = source.indexOf("moveUp") + 4; // meio de um identificador
+        var edited = tokens.edit(offset, 0, "Left".getBytes(StandardCharsets.UTF_8));
+
+        assertSame(tokens, edited); // editado no lugar
+        assertTrue(findValue(edited, "moveLeftUp") >= 0);
+        assertEquals(size, edited.size());
+        assertTrue(edited.rescanned() < 5);
+        assertEquals(source, new String(bytes, StandardCharsets.UTF_8)); // a entrada do chamador nao muda
+
+        // apagar a edicao volta aos mesmos tokens
+        edited.edit(offset, 4, new byte[0]);
+        var expected = TokenBuffer.lex(bytes);
+        assertEquals(expected.size(), edited.size());
+        assertEquals(expected.start(size - 1), edited.start(size - 1));
+        assertEquals(-1, findValue(edited, "moveLeftUp"));
+    }
+
+    @Test
+    public void testIncrementalEditOutOfRange() {
+        var source = "let x = 1;";
+        var tokens = TokenBuffer.lex(source.getBytes(StandardCharsets.UTF_8));
+        int size = tokens.size();
+        var x = "x".getBytes(StandardCharsets.UTF_8);
+
+        assertThrows(IllegalArgumentException.class, () -> tokens.edit(-1, 0, x));
+        assertThrows(IllegalArgumentException.class, () -> tokens.edit(0, -1, x));
+        assertThrows(IllegalArgumentException.class, () -> tokens.edit(8, 3, x));
+        assertThrows(IllegalArgumentException.class, () -> tokens.edit(11, 0, x));
+        assertThrows(IllegalArgumentException.class, () -> tokens.edit(0, 0, null));
+
+        // nada mudou, e uma edicao valida no fim ainda funciona
+        assertEquals(size, tokens.size());
+        assertEquals("1", tokens.value(3));
+        tokens.edit(source.length(), 0, x);
+        assertEquals(size + 1, tokens.size());
+        assertEquals("x", tokens.value(5));
+    }
+
+    private static int findValue(TokenBuffer tokens, String value) {
+        for (int i = 0; i < tokens.size(); i++) {
+            if (value.equals(tokens.value(i))) return i;
+        }
+        return -1;
+    }
+
 }
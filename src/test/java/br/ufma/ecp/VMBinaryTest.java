@@ -0,0 +1,47 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import br.ufma.ecp.VMCommandSink.Segment;
+
+public class VMBinaryTest {
+
+    @Test
+    public void vmBinaryRoundTripTest() throws IOException {
+        long text = 0;
+        long binary = 0;
+        for (String file : new String[] {"Square/Main.jack", "Square/Square.jack", "Square/SquareGame.jack"}) {
+            var code = new VMCode();
+            new Parser(new Scanner(TestSupport.fromFile(file).getBytes(StandardCharsets.UTF_8)), XmlSink.NONE, code).parse();
+
+            var bytes = VMBinary.encode(code);
+            var decoded = VMBinary.read(new ByteArrayInputStream(bytes));
+
+            assertEquals(code.toString(), decoded.toString());
+            text += code.toString().length();
+            binary += bytes.length;
+        }
+        assertTrue("binary " + binary + " bytes, text " + text, binary * 3 < text);
+
+        var code = new VMCode();
+        code.writePush(Segment.CONST, 300); // varint de dois bytes
+        code.writeReturn();
+        var bytes = VMBinary.encode(code);
+        assertEquals("push constant 300\nreturn\n", VMBinary.decode(bytes).toString());
+        try {
+            VMBinary.decode(Arrays.copyOf(bytes, bytes.length - 2));
+            fail("truncated file accepted");
+        } catch (IOException e) {
+            // esperado
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package br.ufma.ecp;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import br.ufma.ecp.Parser.Optimization;
+
+// Relatorio das otimizacoes do codigo VM sobre os programas de referencia:
+// instrucoes geradas e instrucoes executadas no emulador. Nao entra no
+// "mvn test" padrao; rode com: mvn test -Dtest=VMCodeBenchmark
+public class VMCodeBenchmark {
+
+    static void report(String name, Optimization... optimizations) throws IOException {
+        var plain = VMOptimizationTest.square();
+        var optimized = VMOptimizationTest.square(optimizations);
+        var before = new VMEmulator(plain).input(VMOptimizationTest.SQUARE_KEYS);
+        before.run("Main.main", 100_000_000);
+        var after = new VMEmulator(optimized).input(VMOptimizationTest.SQUARE_KEYS);
+        after.run("Main.main", 100_000_000);
+        print("Square, " + name, plain, optimized, before.steps(), after.steps());
+
+        int[] numbers = {4, 7, -3, 12, 9};
+        plain = new VMCode[] {VMOptimizationTest.compile(VMOptimizationTest.AVERAGE)};
+        optimized = new VMCode[] {VMOptimizationTest.compile(VMOptimizationTest.AVERAGE, optimizations)};
+        before = new VMEmulator(plain).input(numbers);
+        before.run("Main.main", 100_000_000);
+        after = new VMEmulator(optimized).input(numbers);
+        after.run("Main.main", 100_000_000);
+        print("Average, " + name, plain, optimized, before.steps(), after.steps());
+    }
+
+    static void print(String name, VMCode[] plain, VMCode[] optimized, long stepsBefore, long stepsAfter) {
+        int before = VMOptimizationTest.size(plain);
+        int after = VMOptimizationTest.size(optimized);
+        System.out.printf("%-28s %5d -> %5d instructions (%d removed), %8d -> %8d executed%n",
+                name, before, after, before - after, stepsBefore, stepsAfter);
+    }
+
+    @Test
+    public void peephole() throws IOException {
+        report("peephole", Optimization.PEEPHOLE);
+    }
+
+    @Test
+    public void constantFolding() throws IOException {
+        report("folding", Optimization.CONSTANT_FOLDING);
+        report("folding + peephole", Optimization.CONSTANT_FOLDING, Optimization.PEEPHOLE);
+    }
+
+    // Math.multiply e Math.divide do livro, em Jack, para que o emulador conte
+    // as instrucoes que eles custam no Hack em vez de trata-los como nativos
+    static final String MATH = """
+            class Math {
+                static Array twoToThe;
+
+                function void init() {
+                    var int i;
+                    let twoToThe = Array.new(16);
+                    let twoToThe[0] = 1;
+                    let i = 1;
+                    while (i < 16) {
+                        let twoToThe[i] = twoToThe[i - 1] + twoToThe[i - 1];
+                        let i = i + 1;
+                    }
+                    return;
+                }
+
+                function int multiply(int x, int y) {
+                    var int sum, shiftedX, j;
+                    let shiftedX = x;
+                    while (j < 16) {
+                        if (~((y & twoToThe[j]) = 0)) {
+                            let sum = sum + shiftedX;
+                        }
+                        let shiftedX = shiftedX + shiftedX;
+                        let j = j + 1;
+                    }
+                    return sum;
+                }
+
+                function int divide(int x, int y) {
+                    var int q;
+                    var boolean negative;
+                    let negative = (x < 0) = (y > 0);
+                    let q = Math.divideAbs(Math.abs(x), Math.abs(y));
+                    if (negative & ~(x = 0)) {
+                        return -q;
+                    }
+                    return q;
+                }
+
+                function int divideAbs(int x, int y) {
+                    var int q;
+                    if ((y > x) | (y < 0)) {
+                        return 0;
+                    }
+                    let q = Math.divideAbs(x, y + y);
+                    if ((x - ((q + q) * y)) < y) {
+                        return q + q;
+                    }
+                    return q + q + 1;
+                }
+            }
+            """;
+
+    // desenha retangulos pixel a pixel, como o Screen do SO: endereco
+    // 32 * y + x / 16 e mascara do bit x & 15
+    static final String GRAPHICS = """
+            class Main {
+                function void main() {
+                    var int i;
+                    do Math.init();
+                    while (i < 4) {
+                        do Main.fill(i * 8, i * 4, 64 + (i * 16), 40 + (i * 4));
+                        let i = i + 1;
+                    }
+                    do Output.printInt(Memory.peek(16384 + (32 * 20) + 2));
+                    return;
+                }
+
+                function void fill(int x1, int y1, int x2, int y2) {
+                    var int x, y, address, mask, bit;
+                    let y = y1;
+                    while (y < y2) {
+                        let x = x1;
+                        while (x < x2) {
+                            let address = 16384 + (y * 32) + (x / 16);
+                            let bit = x & 15;
+                            let mask = 1;
+                            while (bit > 0) {
+                                let mask = mask * 2;
+                                let bit = bit - 1;
+                            }
+                            do Memory.poke(address, Memory.peek(address) | mask);
+                            let x = x + 1;
+                        }
+                        let y = y + 1;
+                    }
+                    return;
+                }
+            }
+            """;
+
+    @Test
+    public void strengthReduction() {
+        var math = VMOptimizationTest.compile(MATH);
+        var plain = new VMEmulator(math, VMOptimizationTest.compile(GRAPHICS));
+        plain.run("Main.main", 1_000_000_000);
+        var reduced = new VMEmulator(math, VMOptimizationTest.compile(GRAPHICS, Optimization.STRENGTH_REDUCTION));
+        reduced.run("Main.main", 1_000_000_000);
+
+        System.out.printf("graphics, multiply/divide in Jack: %d -> %d VM instructions executed (%.1fx)%n",
+                plain.steps(), reduced.steps(), plain.steps() / (double) reduced.steps());
+        if (!plain.trace().equals(reduced.trace())) {
+            throw new AssertionError("different output");
+        }
+    }
+
+
+    @Test
+    public void deadCode() throws IOException {
+        report("dead code", Optimization.DEAD_CODE);
+        report("peephole + dead code", Optimization.PEEPHOLE, Optimization.DEAD_CODE);
+    }
+
+    @Test
+    public void branchLayout() throws IOException {
+        report("branch layout", Optimization.BRANCH_LAYOUT);
+        report("all", Optimization.values());
+    }
+
+    @Test
+    public void stringPool() throws IOException {
+        report("string pool", Optimization.STRING_POOL);
+
+        var source = """
+                class Main {
+                    function void main() {
+                        var int i;
+                        let i = 0;
+                        while (i < 200) {
+                            do Output.printString("Frame ");
+                            do Output.printInt(i);
+                            do Output.printString(" of the animation drawn");
+                            do Output.println();
+                            let i = i + 1;
+                        }
+                        return;
+                    }
+                }
+                """;
+        var plain = new VMEmulator(VMOptimizationTest.compile(source));
+        plain.run("Main.main", 100_000_000);
+        var pooled = new VMEmulator(VMOptimizationTest.compile(source, Optimization.STRING_POOL));
+        pooled.run("Main.main", 100_000_000);
+        System.out.printf("%-28s %8d -> %8d executed, %5d -> %5d heap words%n", "Loop, string pool",
+                plain.steps(), pooled.steps(), plain.heapUsed(), pooled.heapUsed());
+        if (!plain.trace().equals(pooled.trace())) {
+            throw new AssertionError("different output");
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import br.ufma.ecp.VMCode.Opcode;
+import br.ufma.ecp.VMCommandSink.Segment;
+
+public class VMCodeTest {
+
+    @Test
+    public void vmCodeTest() throws IOException {
+        for (String file : new String[] {"Square/Main.jack", "Square/Square.jack", "Square/SquareGame.jack"}) {
+            var input = TestSupport.fromFile(file).getBytes(StandardCharsets.UTF_8);
+            var parser = new Parser(input);
+            parser.parse();
+
+            var code = new VMCode();
+            new Parser(TokenBuffer.lex(input), XmlSink.NONE, code).parse();
+
+            assertEquals(parser.VMOutput(), code.toString());
+            assertEquals(parser.VMOutput().split("\n").length, code.size());
+        }
+
+        var code = new VMCode();
+        code.writeFunction("Main.main", 0);
+        code.writePush(Segment.CONST, 0);
+        code.writeReturn();
+        assertEquals(Opcode.FUNCTION, code.opcode(0));
+        assertEquals("Main.main", code.name(0));
+        assertEquals(Segment.CONST, code.segment(1));
+        assertEquals(0, code.operand(1));
+        assertEquals(Opcode.RETURN, code.opcode(2));
+    }
+}
@@ -0,0 +1,639 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Test;
+
+import br.ufma.ecp.Parser.Optimization;
+import br.ufma.ecp.VMCommandSink.Command;
+import br.ufma.ecp.VMCommandSink.Segment;
+
+public class VMOptimizationTest {
+
+    // setas, z, x e por fim q; entre uma tecla e outra, nenhuma
+    static final int[] SQUARE_KEYS = {0, 0, 132, 132, 0, 0, 133, 0, 88, 0, 131, 0, 90, 0, 130, 0, 0, 81, 0};
+
+    static final String SEVEN = """
+            class Main {
+                function void main() {
+                    do Output.printInt(1 + (2 * 3));
+                    return;
+                }
+            }
+            """;
+
+    static final String AVERAGE = """
+            class Main {
+                function void main() {
+                    var Array a;
+                    var int length;
+                    var int i, sum;
+                    let length = Keyboard.readInt("How many numbers? ");
+                    let a = Array.new(length);
+                    let i = 0;
+                    while (i < length) {
+                        let a[i] = Keyboard.readInt("Enter the next number: ");
+                        let i = i + 1;
+                    }
+                    let i = 0; let sum = 0;
+                    while (i < length) {
+                        let sum = sum + a[i];
+                        let i = i + 1;
+                    }
+                    do Output.printString("The average is: ");
+                    do Output.printInt(sum / length);
+                    do Output.println();
+                    return;
+                }
+            }
+            """;
+
+    static VMCode compile(String source, Optimization... optimizations) {
+        var code = new VMCode();
+        new Parser(new Scanner(source.getBytes(StandardCharsets.UTF_8)), XmlSink.NONE, code)
+                .enable(optimizations)
+                .parse();
+        return code;
+    }
+
+    static VMCode[] square(Optimization... optimizations) throws IOException {
+        return new VMCode[] {
+                compile(TestSupport.fromFile("Square/Main.jack"), optimizations),
+                compile(TestSupport.fromFile("Square/Square.jack"), optimizations),
+                compile(TestSupport.fromFile("Square/SquareGame.jack"), optimizations),
+        };
+    }
+
+    // executa a funcao e devolve o valor de retorno seguido do que foi impresso
+    static String run(String function, int[] input, VMCode... units) {
+        var emulator = new VMEmulator(units).input(input);
+        int result = emulator.run(function, 10_000_000);
+        return result + "\n" + emulator.trace();
+    }
+
+    static int size(VMCode... units) {
+        int size = 0;
+        for (VMCode unit : units) {
+            size += unit.size();
+        }
+        return size;
+    }
+
+    @Test
+    public void emulatorRunsSquare() throws IOException {
+        var trace = run("Main.main", SQUARE_KEYS, square());
+        assertTrue(trace.contains("Screen.drawRectangle(0,0,30,30)"));
+        assertEquals("0\n", run("Main.more", new int[0], square()));
+        assertEquals("0\n7", run("Main.main", new int[0], compile(SEVEN)));
+        assertEquals("0\nThe average is: 20\n", run("Main.main", new int[] {3, 10, 20, 30}, compile(AVERAGE)));
+    }
+
+    @Test
+    public void peepholePatterns() {
+        var code = new VMCode();
+        code.writePush(Segment.LOCAL, 0);
+        code.writePop(Segment.LOCAL, 0);     // push/pop no mesmo lugar
+        code.writeArithmetic(Command.NOT);
+        code.writeArithmetic(Command.NOT);   // dupla negacao
+        code.writePush(Segment.CONST, 0);
+        code.writeArithmetic(Command.NOT);
+        code.writeIf("WHILE_END0");          // true: salto incondicional
+        code.writeReturn();                  // inalcancavel
+        code.writeLabel("WHILE_END0");
+        code.writePush(Segment.LOCAL, 1);
+        code.writePush(Segment.LOCAL, 2);
+        code.writeArithmetic(Command.LT);
+        code.writeIf("IF_TRUE0");
+        code.writeGoto("IF_FALSE0");
+        code.writeLabel("IF_TRUE0");
+        code.writeGoto("IF_FALSE0");         // salto para a proxima instrucao
+        code.writeLabel("IF_FALSE0");
+
+        assertEquals("""
+                label WHILE_END0
+                push local 1
+                push local 2
+                lt
+                not
+                if-goto IF_FALSE0
+                label IF_TRUE0
+                label IF_FALSE0
+                """, VMPeephole.optimize(code).toString());
+    }
+
+    @Test
+    public void peepholeArrayStore() {
+        var code = new VMCode();
+        code.writePush(Segment.LOCAL, 0);
+        code.writePop(Segment.TEMP, 0);
+        code.writePop(Segment.POINTER, 1);
+        code.writePush(Segment.TEMP, 0);
+        code.writePop(Segment.THAT, 0);
+
+        assertEquals("pop pointer 1\npush local 0\npop that 0\n", VMPeephole.optimize(code).toString());
+
+        // a[i] = a[j]: o valor veio de that 0 antes do pop pointer 1
+        code = new VMCode();
+        code.writePush(Segment.THAT, 0);
+        code.writePop(Segment.TEMP, 0);
+        code.writePop(Segment.POINTER, 1);
+        code.writePush(Segment.TEMP, 0);
+        code.writePop(Segment.THAT, 0);
+        assertEquals(code.toString(), VMPeephole.optimize(code).toString());
+    }
+
+    @Test
+    public void peepholeKeepsNonBooleanConditions() {
+        // ~x so e falso quando x = -1: nao da para inverter o desvio
+        var code = new VMCode();
+        code.writePush(Segment.LOCAL, 0);
+        code.writeIf("IF_TRUE0");
+        code.writeGoto("IF_FALSE0");
+        code.writeLabel("IF_TRUE0");
+        code.writeLabel("IF_FALSE0");
+
+        assertEquals(code.toString(), VMPeephole.optimize(code).toString());
+    }
+
+    @Test
+    public void peepholePreservesSemantics() throws IOException {
+        var plain = square();
+        var optimized = square(Optimization.PEEPHOLE);
+        assertEquals(run("Main.main", SQUARE_KEYS, plain), run("Main.main", SQUARE_KEYS, optimized));
+        assertEquals(run("Main.more", new int[0], plain), run("Main.more", new int[0], optimized));
+        assertTrue(size(optimized) < size(plain));
+
+        int[] numbers = {4, 7, -3, 12, 9};
+        assertEquals(run("Main.main", numbers, compile(AVERAGE)),
+                run("Main.main", numbers, compile(AVERAGE, Optimization.PEEPHOLE)));
+        assertEquals(run("Main.main", new int[0], compile(SEVEN)),
+                run("Main.main", new int[0], compile(SEVEN, Optimization.PEEPHOLE)));
+    }
+
+
+    static String folded(String expression) {
+        var code = new VMCode();
+        var folder = new ConstantFolder(code);
+        var parser = new Parser(new Scanner(expression.getBytes(StandardCharsets.UTF_8)), XmlSink.NONE, folder);
+        parser.parseExpression();
+        folder.flush();
+        return code.toString();
+    }
+
+    @Test
+    public void constantFolding() {
+        assertEquals("push constant 33\n", folded("2 * 16 + 1"));
+        assertEquals("push constant 20\n", folded("2 + 3 * 4")); // sem precedencia
+        assertEquals("push constant 3\nneg\n", folded("-3"));
+        assertEquals("push constant 7\nneg\n", folded("1 - 8"));
+        assertEquals("push constant 32767\nnot\n", folded("32767 + 1")); // -32768
+        assertEquals("push constant 0\nnot\n", folded("~(1 = 2)"));
+        assertEquals("push constant 0\nnot\n", folded("-1"));
+        assertEquals("push constant 0\n", folded("(7 / 2) = 4"));
+        assertEquals("push constant 2\nneg\n", folded("-7 / 3"));
+        assertEquals("push constant 16\npush constant 0\ncall Math.divide 2\n", folded("16 / 0"));
+    }
+
+    @Test
+    public void constantFoldingKeepsBooleanBranches() {
+        var source = """
+                class Main {
+                    function void main() {
+                        while (true) {
+                            do Output.printInt(1);
+                        }
+                        if (~false) {
+                            do Output.printInt(2);
+                        }
+                        return;
+                    }
+                }
+                """;
+        var all = new Optimization[] {Optimization.CONSTANT_FOLDING, Optimization.PEEPHOLE, Optimization.BRANCH_LAYOUT};
+        var withoutFolding = new Optimization[] {Optimization.PEEPHOLE, Optimization.BRANCH_LAYOUT};
+        // o laco termina num goto e o if, depois dele, fica inalcancavel
+        assertEquals(size(compile(source, withoutFolding)), size(compile(source, all)));
+        assertEquals(11, size(compile(source, all)));
+        assertTrue(compile(source, all).toString().contains("""
+                label WHILE_EXP0
+                goto WHILE_BODY0
+                """));
+    }
+
+    @Test
+    public void constantFoldingPreservesSemantics() throws IOException {
+        var program = """
+                class Main {
+                    function void main() {
+                        var int x, i;
+                        let x = 2 * 16 + 1;
+                        do Output.printInt(x);
+                        do Output.printInt(32767 + 1);
+                        do Output.printInt(-(3 * 4) - 5);
+                        do Output.printInt(~(1 < 2) | (3 > 2));
+                        do Output.printInt(200 * 200);
+                        do Output.printInt(-7 / 2);
+                        let i = 0;
+                        while (i < (10 - 7)) {
+                            let x = x + (i * (1 + 1));
+                            let i = i + 1;
+                        }
+                        do Output.printInt(x);
+                        return;
+                    }
+                }
+                """;
+        var plain = compile(program);
+        var optimized = compile(program, Optimization.CONSTANT_FOLDING);
+        assertEquals(run("Main.main", new int[0], plain), run("Main.main", new int[0], optimized));
+        assertTrue(size(optimized) < size(plain));
+
+        var square = square(Optimization.CONSTANT_FOLDING, Optimization.PEEPHOLE);
+        assertEquals(run("Main.main", SQUARE_KEYS, square()), run("Main.main", SQUARE_KEYS, square));
+        assertEquals(run("Main.more", new int[0], square()), run("Main.more", new int[0], square));
+    }
+
+    @Test
+    public void strengthReduction() {
+        var code = new VMCode();
+        var reducer = new StrengthReducer(code);
+        reducer.writePush(Segment.LOCAL, 0);
+        reducer.writePush(Segment.CONST, 5);
+        reducer.writeCall("Math.multiply", 2);    // x * 5 = ((x + x) + (x + x)) + x
+        reducer.writePush(Segment.CONST, 1);
+        reducer.writeCall("Math.divide", 2);      // / 1
+        reducer.writePush(Segment.CONST, 0);
+        reducer.writeCall("Math.multiply", 2);    // * 0
+        reducer.writePush(Segment.CONST, 2);
+        reducer.writePush(Segment.ARG, 1);
+        reducer.writeCall("Math.multiply", 2);    // 2 * y
+        reducer.writePush(Segment.CONST, 3);
+        reducer.writeCall("Math.divide", 2);      // / 3 continua chamada
+        reducer.writePush(Segment.CONST, 30000);
+        reducer.writeCall("Math.multiply", 2);    // cadeia longa demais
+        reducer.flush();
+
+        assertEquals("""
+                push local 0
+                pop temp 1
+                push temp 1
+                pop temp 2
+                push temp 2
+                push temp 2
+                add
+                pop temp 2
+                push temp 2
+                push temp 2
+                add
+                push temp 1
+                add
+                pop temp 0
+                push constant 0
+                push argument 1
+                pop temp 1
+                push temp 1
+                pop temp 2
+                push temp 2
+                push temp 2
+                add
+                push constant 3
+                call Math.divide 2
+                push constant 30000
+                call Math.multiply 2
+                """, code.toString());
+    }
+
+    @Test
+    public void strengthReductionPreservesSemantics() {
+        var program = new StringBuilder("""
+                class Main {
+                    function void main() {
+                        var int x, y;
+                        let x = 0;
+                        while (x < 40) {
+                """);
+        for (int k : new int[] {0, 1, 2, 3, 5, 7, 8, 16, 31, 32, 100, 255, 1000}) {
+            program.append("do Output.printInt(x * ").append(k).append(");\n")
+                    .append("do Output.printInt(").append(k).append(" * (x - 20));\n")
+                    .append("do Output.printInt((x * 997) * ").append(k).append(");\n")
+                    .append("do Output.printInt((x - 20) / 1);\n");
+        }
+        program.append("""
+                            let x = x + 1;
+                        }
+                        return;
+                    }
+                }
+                """);
+        var source = program.toString();
+
+        var plain = compile(source);
+        var reduced = compile(source, Optimization.STRENGTH_REDUCTION);
+        assertEquals(run("Main.main", new int[0], plain), run("Main.main", new int[0], reduced));
+        var all = compile(source, Optimization.CONSTANT_FOLDING, Optimization.STRENGTH_REDUCTION, Optimization.PEEPHOLE);
+        assertEquals(run("Main.main", new int[0], plain), run("Main.main", new int[0], all));
+    }
+
+    @Test
+    public void stringPool() {
+        var source = """
+                class Main {
+                    static int count;
+                    function void main() {
+                        var int i;
+                        let i = 0;
+                        while (i < 3) {
+                            do Output.printString("Hello, pool!");
+                            do Output.printString(" ");
+                            do Output.printString("Hello, pool!");
+                            do Output.println();
+                            let i = i + 1;
+                        }
+                        let count = i;
+                        return;
+                    }
+                }
+                """;
+        var plain = compile(source);
+        var pooled = compile(source, Optimization.STRING_POOL);
+        assertEquals(run("Main.main", new int[0], plain), run("Main.main", new int[0], pooled));
+
+        var text = pooled.toString();
+        assertEquals(2, count(text, "call String.new 1"));
+        assertEquals(0, count(text, "call Main.string"));
+        // o segundo uso no mesmo caminho so le o slot, que fica depois do static da classe
+        assertTrue(text.contains("""
+                call Output.printString 1
+                pop temp 0
+                push static 2
+                if-goto STRING_READY1
+                push constant 1
+                call String.new 1
+                push constant 32
+                call String.appendChar 2
+                pop static 2
+                label STRING_READY1
+                push static 2
+                call Output.printString 1
+                pop temp 0
+                push static 1
+                call Output.printString 1
+                """));
+        assertTrue(size(pooled) < size(plain));
+    }
+
+    @Test
+    public void deadCode() {
+        var source = """
+                class Main {
+                    function int sign(int x) {
+                        if (x < 0) {
+                            return -1;
+                        } else {
+                            return 1;
+                        }
+                    }
+                    function int first(int x) {
+                        while (true) {
+                            return x;
+                            let x = x + 1;
+                        }
+                        return 0;
+                    }
+                }
+                """;
+        assertEquals("""
+                function Main.sign 0
+                push argument 0
+                push constant 0
+                lt
+                if-goto IF_TRUE0
+                goto IF_FALSE0
+                label IF_TRUE0
+                push constant 1
+                neg
+                return
+                label IF_FALSE0
+                push constant 1
+                return
+                function Main.first 0
+                push constant 0
+                not
+                not
+                if-goto WHILE_END0
+                push argument 0
+                return
+                label WHILE_END0
+                push constant 0
+                return
+                """, compile(source, Optimization.DEAD_CODE).toString());
+
+        // com o peephole o desvio constante some e o resto do laco fica inalcancavel
+        assertEquals("""
+                function Main.first 0
+                push argument 0
+                return
+                """, compile(source, Optimization.PEEPHOLE, Optimization.DEAD_CODE).toString()
+                        .replaceAll("(?s).*(function Main.first)", "$1"));
+    }
+
+    @Test
+    public void deadCodePreservesSemantics() throws IOException {
+        var plain = square();
+        var optimized = square(Optimization.PEEPHOLE, Optimization.DEAD_CODE);
+        assertEquals(run("Main.main", SQUARE_KEYS, plain), run("Main.main", SQUARE_KEYS, optimized));
+        assertEquals(run("Main.more", new int[0], plain), run("Main.more", new int[0], optimized));
+        assertTrue(size(optimized) <= size(square(Optimization.PEEPHOLE)));
+
+        int[] numbers = {4, 7, -3, 12, 9};
+        assertEquals(run("Main.main", numbers, compile(AVERAGE)),
+                run("Main.main", numbers, compile(AVERAGE, Optimization.PEEPHOLE, Optimization.DEAD_CODE)));
+    }
+
+    @Test
+    public void branchLayout() {
+        var source = """
+                class Main {
+                    function int f(int x) {
+                        while (x < 10) {
+                            let x = x + 1;
+                        }
+                        while (x) {
+                            let x = x - 1;
+                        }
+                        if (~(x = 0)) {
+                            let x = 1;
+                        } else {
+                            let x = 2;
+                        }
+                        if (x) {
+                            let x = 3;
+                        }
+                        return x;
+                    }
+                }
+                """;
+        assertEquals("""
+                function Main.f 0
+                goto WHILE_EXP0
+                label WHILE_BODY0
+                push argument 0
+                push constant 1
+                add
+                pop argument 0
+                label WHILE_EXP0
+                push argument 0
+                push constant 10
+                lt
+                if-goto WHILE_BODY0
+                label WHILE_EXP1
+                push argument 0
+                not
+                if-goto WHILE_END1
+                push argument 0
+                push constant 1
+                sub
+                pop argument 0
+                goto WHILE_EXP1
+                label WHILE_END1
+                push argument 0
+                push constant 0
+                eq
+                if-goto IF_FALSE0
+                push constant 1
+                pop argument 0
+                goto IF_END0
+                label IF_FALSE0
+                push constant 2
+                pop argument 0
+                label IF_END0
+                push argument 0
+                if-goto IF_TRUE1
+                goto IF_FALSE1
+                label IF_TRUE1
+                push constant 3
+                pop argument 0
+                label IF_FALSE1
+                push argument 0
+                return
+                """, compile(source, Optimization.BRANCH_LAYOUT).toString());
+    }
+
+    @Test
+    public void branchLayoutPreservesSemantics() throws IOException {
+        var plain = square();
+        var optimized = square(Optimization.BRANCH_LAYOUT);
+        assertEquals(run("Main.main", SQUARE_KEYS, plain), run("Main.main", SQUARE_KEYS, optimized));
+        assertEquals(run("Main.more", new int[0], plain), run("Main.more", new int[0], optimized));
+
+        int[] numbers = {4, 7, -3, 12, 9};
+        assertEquals(run("Main.main", numbers, compile(AVERAGE)),
+                run("Main.main", numbers, compile(AVERAGE, Optimization.BRANCH_LAYOUT)));
+        var all = Optimization.values();
+        assertEquals(run("Main.main", numbers, compile(AVERAGE)), run("Main.main", numbers, compile(AVERAGE, all)));
+        assertEquals(run("Main.main", SQUARE_KEYS, plain), run("Main.main", SQUARE_KEYS, square(all)));
+    }
+
+    @Test
+    public void treeShaking() throws IOException {
+        var plain = square();
+        var result = VMTreeShaker.shake(plain);
+        assertTrue(result.removed().contains("Main.more"));
+        assertFalse(result.removed().contains("Square.incSize"));
+        assertTrue(result.instructionsAfter() < result.instructionsBefore());
+        assertTrue(result.bytesAfter() < result.bytesBefore());
+        assertEquals(result.instructionsAfter(), size(result.units()));
+        assertEquals(run("Main.main", SQUARE_KEYS, plain), run("Main.main", SQUARE_KEYS, result.units()));
+
+        // uma biblioteca compilada junto: so fica o que o programa usa
+        var library = compile("""
+                class Util {
+                    function int twice(int x) { return Util.add(x, x); }
+                    function int add(int x, int y) { return x + y; }
+                    function int unused() { return Util.twice(1); }
+                }
+                """);
+        var main = compile("""
+                class Main {
+                    function void main() {
+                        do Output.printInt(Util.twice(21));
+                        return;
+                    }
+                }
+                """);
+        result = VMTreeShaker.shake(library, main);
+        assertEquals(List.of("Util.unused"), result.removed());
+        assertEquals("0\n42", run("Main.main", new int[0], result.units()));
+        assertTrue(result.report().startsWith("tree shaking: 1 functions removed, "));
+
+        // o tamanho e o do .vm em bytes, com os nomes em UTF-8
+        var accented = new VMCode();
+        accented.writeFunction("Main.main", 0);
+        accented.writeCall("Main.ação", 0);
+        accented.writeReturn();
+        accented.writeFunction("Main.ação", 0);
+        accented.writeReturn();
+        result = VMTreeShaker.shake(accented);
+        assertEquals(accented.toString().getBytes(StandardCharsets.UTF_8).length, result.bytesBefore());
+
+        // definicao repetida e codigo fora de funcao sao erros
+        try {
+            VMTreeShaker.shake(library, main, library);
+            fail("duplicate function accepted");
+        } catch (Error e) {
+            assertEquals("Function Util.twice defined more than once", e.getMessage());
+        }
+        var stray = new VMCode();
+        stray.writePush(Segment.CONST, 1);
+        stray.writeFunction("Other.f", 0);
+        stray.writeReturn();
+        try {
+            VMTreeShaker.shake(main, stray);
+            fail("code before the first function accepted");
+        } catch (Error e) {
+            assertEquals("Unit 1 has code before its first function", e.getMessage());
+        }
+    }
+
+    @Test
+    public void stringPoolChecksEveryPath() {
+        var source = """
+                class Main {
+                    function void main() {
+                        var int i;
+                        let i = 0;
+                        while (i < 2) {
+                            if (i = 1) {
+                                do Output.printString("odd");
+                            }
+                            do Output.printString("odd");
+                            let i = i + 1;
+                        }
+                        do Output.printString("odd");
+                        return;
+                    }
+                }
+                """;
+        var pooled = compile(source, Optimization.STRING_POOL);
+        assertEquals(run("Main.main", new int[0], compile(source)), run("Main.main", new int[0], pooled));
+        // o uso dentro do if nao domina o seguinte; o do corpo do laco nao domina o de depois
+        assertEquals(3, count(pooled.toString(), "call String.new 1"));
+        var all = Optimization.values();
+        assertEquals(run("Main.main", new int[0], compile(source)), run("Main.main", new int[0], compile(source, all)));
+    }
+
+    static int count(String text, String line) {
+        int count = 0;
+        for (int i = text.indexOf(line); i >= 0; i = text.indexOf(line, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,143 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import br.ufma.ecp.VMCommandSink.Command;
+import br.ufma.ecp.VMCommandSink.Segment;
+
+public class VMWriterTest {
+
+    @Test
+    public void vmWriterBytesTest() {
+        var expected = new StringBuilder();
+        var writer = new VMWriter();
+        var stream = new ByteArrayOutputStream();
+        var streamWriter = new VMWriter(stream);
+        int[] values = {0, 7, 10, 99, 100, 32767, 65535, Integer.MAX_VALUE};
+        for (int i = 0; i < 2000; i++) { // passa varias vezes do tamanho do buffer
+            int n = values[i % values.length];
+            for (var w : new VMWriter[] {writer, streamWriter}) {
+                w.writePush(Segment.CONST, n);
+                w.writePop(Segment.THAT, n);
+                w.writeArithmetic(Command.NEG);
+                w.writeLabel("IF_TRUE", n);
+                w.writeIf("WHILE_END" + n);
+                w.writeCall("String.appendChar", n);
+                w.writeFunction("Main.main", n);
+                w.writeReturn();
+            }
+            expected.append(String.format("push constant %d\npop that %d\nneg\nlabel IF_TRUE%d\nif-goto WHILE_END%d\n"
+                    + "call String.appendChar %d\nfunction Main.main %d\nreturn\n", n, n, n, n, n, n));
+        }
+        streamWriter.flush();
+
+        assertEquals(expected.toString(), writer.vmOutput());
+        assertEquals(expected.toString(), stream.toString(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void commandSinkTest() throws IOException {
+        var input = TestSupport.fromFile("Square/SquareGame.jack").getBytes(StandardCharsets.UTF_8);
+        var parser = new Parser(input);
+        parser.parse();
+
+        // um sink qualquer recebe as mesmas instrucoes, ja tipadas
+        var text = new StringBuilder();
+        var sink = new VMCommandSink() {
+            public void writePush(Segment segment, int index) {
+                text.append("push ").append(segment.value).append(' ').append(index).append('\n');
+            }
+
+            public void writePop(Segment segment, int index) {
+                text.append("pop ").append(segment.value).append(' ').append(index).append('\n');
+            }
+
+            public void writeArithmetic(Command command) {
+                text.append(command.value).append('\n');
+            }
+
+            public void writeLabel(String label) {
+                text.append("label ").append(label).append('\n');
+            }
+
+            public void writeGoto(String label) {
+                text.append("goto ").append(label).append('\n');
+            }
+
+            public void writeIf(String label) {
+                text.append("if-goto ").append(label).append('\n');
+            }
+
+            public void writeCall(String name, int nArgs) {
+                text.append("call ").append(name).append(' ').append(nArgs).append('\n');
+            }
+
+            public void writeFunction(String name, int nLocals) {
+                text.append("function ").append(name).append(' ').append(nLocals).append('\n');
+            }
+
+            public void writeReturn() {
+                text.append("return\n");
+            }
+        };
+        new Parser(new Scanner(input), XmlSink.NONE, sink).parse();
+
+        assertEquals(parser.VMOutput(), text.toString());
+    }
+
+    @Test
+    public void nonAsciiNamesTest() throws IOException {
+        var input = """
+                class Ação {
+                    function void início(int n) {
+                        do Ação.início(n);
+                        return;
+                    }
+                }
+                """.getBytes(StandardCharsets.UTF_8);
+        var expected = """
+                function Ação.início 0
+                push argument 0
+                call Ação.início 1
+                pop temp 0
+                push constant 0
+                return
+                """;
+
+        var parser = new Parser(input);
+        parser.parse();
+        assertEquals(expected, parser.VMOutput());
+
+        var stream = new ByteArrayOutputStream();
+        var writer = new VMWriter(stream);
+        new Parser(new Scanner(input), XmlSink.NONE, writer).parse();
+        writer.flush();
+        assertEquals(expected, stream.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void streamingWriterRefusesPartialOutput() throws IOException {
+        var stream = new ByteArrayOutputStream();
+        var writer = new VMWriter(stream);
+        var expected = new StringBuilder();
+        for (int i = 0; i < 3000; i++) { // bem mais que um buffer
+            writer.writePush(Segment.LOCAL, i);
+            expected.append("push local ").append(i).append('\n');
+        }
+        writer.flush();
+        assertEquals(expected.toString(), stream.toString(StandardCharsets.UTF_8));
+
+        assertThrows(IllegalStateException.class, writer::vmOutput);
+        assertThrows(IllegalStateException.class, writer::toString);
+        assertThrows(IllegalStateException.class, () -> writer.writeTo(new ByteArrayOutputStream()));
+        var parser = new Parser(new Scanner("class A { }".getBytes(StandardCharsets.UTF_8)), XmlSink.NONE, writer);
+        assertThrows(IllegalStateException.class, parser::VMOutput);
+    }
+}